@@ -0,0 +1,73 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 各目录 benchmark 共用的多线程计时骨架（非 JMH，粗略数字）：
+ * threads 个 daemon 线程在同一个 latch 上等，放行前定好截止时间，每个线程跑到截止时间为止，返回自己做了多少次操作。
+ * 线程里的状态（随机数种子、每线程计数）留在 Worker 自己的局部变量里，骨架只负责起线程、计时、汇总。
+ *
+ * 其他目录用的时候把这个目录加进 sourcepath：javac -sourcepath .:../benchmark -d out *.java
+ */
+public final class ConcurrentBenchmark {
+
+    interface Worker {
+        /**
+         * @param threadIndex   0 .. threads-1
+         * @param deadlineNanos System.nanoTime() 到这个值就该返回
+         * @return 这个线程完成的操作数
+         */
+        long run(int threadIndex, long deadlineNanos);
+    }
+
+    private ConcurrentBenchmark() {
+    }
+
+    /**
+     * 跑 durationMs 毫秒，返回所有线程的操作总数。某个线程抛异常的话等其他线程跑完再抛出来
+     */
+    static long run(int threads, long durationMs, Worker worker) throws InterruptedException {
+        if (threads <= 0 || durationMs <= 0) {
+            throw new IllegalArgumentException("threads and durationMs must be positive");
+        }
+        LongAdder ops = new LongAdder();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    // latch 保证看得到 countDown 之前写的 deadline
+                    ops.add(worker.run(id, deadline[0]));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            }, "bench-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        deadline[0] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        start.countDown();
+        done.await();
+        Throwable e = failure.get();
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return ops.sum();
+    }
+
+    static double opsPerSecond(int threads, long durationMs, Worker worker) throws InterruptedException {
+        return run(threads, durationMs, worker) * 1000.0 / durationMs;
+    }
+}
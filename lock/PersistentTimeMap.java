@@ -0,0 +1,320 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * 落盘的 TimeMap：每次 set 往内存映射的 segment 文件尾部追加一条 (key, timestamp, value) 记录，
+ * 内存里只留每个 key 的 timestamp 数组 + 记录位置数组。重启时把 segment 映射回来顺序扫一遍重建索引，不需要回放到别的地方。
+ *
+ * 记录格式（8 字节对齐）：[int length][int crc][int timestamp][int keyLen][int valueLen][key UTF-8][value UTF-8]，
+ * crc 是 timestamp 到 value 结尾的 CRC32C。文件创建时是全 0 的，length == 0 表示这个 segment 后面没有记录了（写满就换下一个 segment）。
+ *
+ * 持久性：
+ * - 进程崩溃：写到映射区的数据已经在 page cache 里，不会丢；length 最后写，写了一半的记录 length 还是 0，重启扫描到这里就当作日志结尾
+ * - 机器掉电：只有 flush() 之前的记录保证在盘上。脏页回写不保证顺序，length 可能落盘了而记录体没有，
+ *   所以重启时逐条校验 crc：最后一个 segment 里第一条校验不过的记录当作日志结尾，把它和后面的内容清零，之后从这里接着写；
+ *   校验不过的记录出现在更早的 segment 里说明文件真的坏了，构造函数抛 IOException
+ *
+ * value 不拷贝：getBytes 直接返回映射区上的只读 ByteBuffer 视图，get 才解码成 String。
+ * 和 TimeMap 一样，同一个 key 的 timestamp 必须不减；读不加锁。
+ * 注意 MappedByteBuffer 在 Java 17 里没有公开的 unmap，close 之后映射要等 GC 才真正释放。
+ */
+public class PersistentTimeMap implements Closeable {
+
+    private static final int HEADER = 20;
+    private static final int DEFAULT_SEGMENT_BYTES = 64 << 20;
+
+    // 一个 key 的版本索引：loc = segment 下标 << 32 | 记录在 segment 里的偏移
+    private static final class Versions {
+        final int[] ts;
+        final long[] locs;
+        // 发布点：先填好 ts[size] / locs[size]，再写 size
+        volatile int size;
+
+        Versions(int[] ts, long[] locs, int size) {
+            this.ts = ts;
+            this.locs = locs;
+            this.size = size;
+        }
+    }
+
+    private static final class KeyIndex {
+        volatile Versions versions = new Versions(new int[4], new long[4], 0);
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final ConcurrentHashMap<String, KeyIndex> index = new ConcurrentHashMap<>();
+
+    // 追加只有一个写入点，所有 set 串行；读线程只读 segments 和索引
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final List<FileChannel> channels = new ArrayList<>();
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private int tailPosition;
+    private long records;
+    private boolean closed;
+    private final CRC32C crc = new CRC32C();
+
+    public PersistentTimeMap(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public PersistentTimeMap(Path dir, int segmentBytes) throws IOException {
+        if (segmentBytes < 4096) {
+            throw new IllegalArgumentException("segmentBytes must be >= 4096");
+        }
+        this.dir = Files.createDirectories(dir);
+        this.segmentBytes = segmentBytes;
+        recover();
+    }
+
+    // ==== 重启：映射已有 segment，顺序扫描重建索引 ====
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "segment-*.log")) {
+            for (Path p : stream) files.add(p);
+        }
+        Collections.sort(files);
+        for (int i = 0; i < files.size(); i++) {
+            if (!files.get(i).getFileName().toString().equals(segmentName(i))) {
+                throw new IOException("missing segment " + segmentName(i) + " in " + dir);
+            }
+            MappedByteBuffer buf = map(files.get(i));
+            tailPosition = scan(i, buf, i == files.size() - 1);
+        }
+        if (segments.length == 0) {
+            map(dir.resolve(segmentName(0)));
+            tailPosition = 0;
+        }
+    }
+
+    // 扫一个 segment，返回第一条空记录的位置；最后一个 segment 里校验不过的记录当作日志结尾，清零后返回它的位置
+    private int scan(int segment, MappedByteBuffer buf, boolean last) throws IOException {
+        int pos = 0;
+        while (pos + HEADER <= buf.capacity()) {
+            int length = buf.getInt(pos);
+            if (length == 0) {
+                break;
+            }
+            if (!valid(buf, pos, length)) {
+                if (!last) {
+                    throw new IOException("corrupt record at " + segmentName(segment) + ":" + pos);
+                }
+                // 掉电时没写完的尾巴：清掉，免得以后追加的记录和残留的旧数据拼在一起
+                for (int i = pos; i < buf.capacity(); i++) {
+                    buf.put(i, (byte) 0);
+                }
+                buf.force();
+                break;
+            }
+            int ts = buf.getInt(pos + 8);
+            int keyLen = buf.getInt(pos + 12);
+            byte[] keyBytes = new byte[keyLen];
+            buf.get(pos + HEADER, keyBytes);
+            String key = new String(keyBytes, StandardCharsets.UTF_8);
+            appendToIndex(index.computeIfAbsent(key, k -> new KeyIndex()), ts, ((long) segment << 32) | pos);
+            records++;
+            pos += length;
+        }
+        return pos;
+    }
+
+    private boolean valid(MappedByteBuffer buf, int pos, int length) {
+        if (length < HEADER || length > buf.capacity() - pos) {
+            return false;
+        }
+        int keyLen = buf.getInt(pos + 12);
+        int valueLen = buf.getInt(pos + 16);
+        if (keyLen < 0 || valueLen < 0 || (long) HEADER + keyLen + valueLen > length) {
+            return false;
+        }
+        return buf.getInt(pos + 4) == checksum(buf, pos, keyLen, valueLen);
+    }
+
+    // timestamp 到 value 结尾的 CRC32C；调用方持有 appendLock（或者在构造函数里单线程恢复）
+    private int checksum(MappedByteBuffer buf, int pos, int keyLen, int valueLen) {
+        crc.reset();
+        crc.update(buf.slice(pos + 8, HEADER - 8 + keyLen + valueLen));
+        return (int) crc.getValue();
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        channels.add(ch);
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, segments.length + 1);
+        grown[segments.length] = buf;
+        segments = grown;
+        return buf;
+    }
+
+    private static String segmentName(int i) {
+        return String.format("segment-%06d.log", i);
+    }
+
+    // ==== 读写 ====
+
+    public void set(String key, String value, int timestamp) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = (HEADER + keyBytes.length + valueBytes.length + 7) & ~7;
+        if (length > segmentBytes) {
+            throw new IllegalArgumentException("record of " + length + " bytes does not fit in a segment");
+        }
+        appendLock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("PersistentTimeMap is closed");
+            }
+            KeyIndex ki = index.computeIfAbsent(key, k -> new KeyIndex());
+            Versions v = ki.versions;
+            if (v.size > 0 && timestamp < v.ts[v.size - 1]) {
+                throw new IllegalArgumentException("timestamp " + timestamp + " < latest " + v.ts[v.size - 1] + " for key " + key);
+            }
+            if (tailPosition + length > segmentBytes) {
+                // 当前 segment 剩下的空间保持全 0，重启扫描到这里自然停下
+                map(dir.resolve(segmentName(segments.length)));
+                tailPosition = 0;
+            }
+            int segment = segments.length - 1;
+            MappedByteBuffer buf = segments[segment];
+            int pos = tailPosition;
+            buf.putInt(pos + 8, timestamp);
+            buf.putInt(pos + 12, keyBytes.length);
+            buf.putInt(pos + 16, valueBytes.length);
+            buf.put(pos + HEADER, keyBytes);
+            buf.put(pos + HEADER + keyBytes.length, valueBytes);
+            buf.putInt(pos + 4, checksum(buf, pos, keyBytes.length, valueBytes.length));
+            // 提交点（进程崩溃时）；掉电时靠 crc
+            buf.putInt(pos, length);
+            tailPosition = pos + length;
+            records++;
+            appendToIndex(ki, timestamp, ((long) segment << 32) | pos);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    // 调用方持有 appendLock（或者在构造函数里单线程恢复）
+    private static void appendToIndex(KeyIndex ki, int timestamp, long loc) {
+        Versions v = ki.versions;
+        int size = v.size;
+        if (size == v.ts.length) {
+            int newCap = size + (size >> 1);
+            v = new Versions(Arrays.copyOf(v.ts, newCap), Arrays.copyOf(v.locs, newCap), size);
+            v.ts[size] = timestamp;
+            v.locs[size] = loc;
+            v.size = size + 1;
+            ki.versions = v;
+        } else {
+            v.ts[size] = timestamp;
+            v.locs[size] = loc;
+            v.size = size + 1;
+        }
+    }
+
+    /**
+     * timestamp 时刻的 value，直接是映射区上的只读视图，不拷贝；没有则 null
+     */
+    public ByteBuffer getBytes(String key, int timestamp) {
+        KeyIndex ki = index.get(key);
+        if (ki == null) return null;
+        Versions v = ki.versions;
+        int i = TimeMap.bs(v.ts, v.size, timestamp);
+        if (i < 0) return null;
+        long loc = v.locs[i];
+        MappedByteBuffer buf = segments[(int) (loc >>> 32)];
+        int pos = (int) loc;
+        int keyLen = buf.getInt(pos + 12);
+        int valueLen = buf.getInt(pos + 16);
+        return buf.slice(pos + HEADER + keyLen, valueLen).asReadOnlyBuffer();
+    }
+
+    public String get(String key, int timestamp) {
+        ByteBuffer value = getBytes(key, timestamp);
+        return value == null ? "" : StandardCharsets.UTF_8.decode(value).toString();
+    }
+
+    public long recordCount() {
+        appendLock.lock();
+        try {
+            return records;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public int keyCount() {
+        return index.size();
+    }
+
+    /**
+     * 把脏页刷到磁盘。不调的话进程崩溃数据还在 page cache 里；机器掉电会丢，没写完整的记录重启时按 crc 截掉
+     */
+    public void flush() {
+        for (MappedByteBuffer buf : segments) {
+            buf.force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        appendLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flush();
+            for (FileChannel ch : channels) {
+                ch.close();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Path dir = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("time-map");
+        int keys = 10_000;
+        int versions = 100;
+        // 8MB 一个 segment，100 万条记录会滚好几个 segment
+        long start = System.nanoTime();
+        try (PersistentTimeMap tm = new PersistentTimeMap(dir, 8 << 20)) {
+            for (int v = 0; v < versions; v++) {
+                for (int k = 0; k < keys; k++) {
+                    tm.set("key-" + k, "value-" + k + "@" + v, v * 10);
+                }
+            }
+            System.out.printf("wrote %,d records for %,d keys in %d ms%n", tm.recordCount(), tm.keyCount(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+
+        start = System.nanoTime();
+        try (PersistentTimeMap reopened = new PersistentTimeMap(dir, 8 << 20)) {
+            System.out.printf("reopened %,d records for %,d keys in %d ms%n", reopened.recordCount(), reopened.keyCount(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            System.out.println("get(key-42, 55) = " + reopened.get("key-42", 55));
+            ByteBuffer view = reopened.getBytes("key-42", 999);
+            System.out.println("getBytes(key-42, 999): " + view.remaining() + " bytes, readOnly = " + view.isReadOnly());
+            reopened.set("key-42", "after-restart", 1000);
+            System.out.println("get(key-42, 1000) = " + reopened.get("key-42", 1000));
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path p : stream) Files.delete(p);
+        }
+        Files.delete(dir);
+    }
+}
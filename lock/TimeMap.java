@@ -1,51 +1,606 @@
+import java.lang.invoke.VarHandle;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.*;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
-public class TimeMap {
-    private static final class Node {
-        final int ts;
-        final String val;
-        Node(String val, int ts) { this.val = val; this.ts = ts; }
+public class TimeMap implements AutoCloseable {
+
+    /**
+     * 每个 key 保留哪些版本：返回第一个要保留的下标，前面的都丢掉。
+     * 最新的版本永远保留（返回值会被夹到 size - 1 以内）
+     */
+    public interface RetentionPolicy {
+        int firstKept(int[] ts, int size);
+
+        /** 只留最近 n 个版本 */
+        static RetentionPolicy keepLast(int n) {
+            if (n <= 0) {
+                throw new IllegalArgumentException("n must be > 0");
+            }
+            return (ts, size) -> Math.max(0, size - n);
+        }
+
+        /**
+         * 丢掉比 horizon 更老的版本，但保留 <= horizon 的最新一个，
+         * 这样 get(key, t) 对所有 t >= horizon 的结果和不做清理时一样
+         */
+        static RetentionPolicy horizon(IntSupplier horizon) {
+            Objects.requireNonNull(horizon);
+            return (ts, size) -> Math.max(0, bs(ts, size, horizon.getAsInt()));
+        }
+
+        /** horizon = 这个 key 最新的 timestamp - maxAge */
+        static RetentionPolicy maxAge(int maxAge) {
+            if (maxAge < 0) {
+                throw new IllegalArgumentException("maxAge must be >= 0");
+            }
+            return (ts, size) -> size == 0 ? 0 : Math.max(0, bs(ts, size, ts[size - 1] - maxAge));
+        }
+    }
+
+    // 一个 key 的所有版本：timestamp 和 value 放在两个并行数组里，
+    // 二分查找只扫 int[]，不用每次探测都跳到一个 Node 对象上（每个版本也省掉一个对象头）。
+    // 数组只追加：size 之前的槽位写进去之后就不再改，扩容时换一个新的 Versions
+    private static final class Versions {
+        final int[] ts;
+        final String[] vals;
+        // 发布点：写线程先填好 ts[size] / vals[size]，再写 size
+        volatile int size;
+
+        // 乱序写入的暂存区（不排序，只追加），第一次乱序写入时才分配；攒满 STAGE_CAPACITY 个再合并进主数组
+        final int[] stagedTs;
+        final String[] stagedVals;
+        volatile int staged;
+
+        Versions(int[] ts, String[] vals, int size) {
+            this(ts, vals, size, null, null, 0);
+        }
+
+        Versions(int[] ts, String[] vals, int size, int[] stagedTs, String[] stagedVals, int staged) {
+            this.ts = ts;
+            this.vals = vals;
+            this.size = size;
+            this.stagedTs = stagedTs;
+            this.stagedVals = stagedVals;
+            this.staged = staged;
+        }
     }
 
+    private static final int STAGE_CAPACITY = 32;
+
+    // 读不加锁：读 volatile versions、再读 volatile size，看到的就是一个已经写完的前缀。
+    // 写线程之间还是要互斥（同一个 key 的 append），用 writeLock。
+    // 唯一会原地改已发布槽位的是乱序合并，它前后各把 mergeSeq 加一（seqlock）：
+    // 读线程发现 mergeSeq 是奇数或者前后不一致就重读，读线程自己仍然不写任何共享内存
     private static final class Bucket {
-        final ArrayList<Node> list = new ArrayList<>();
-        final ReadWriteLock rw = new ReentrantReadWriteLock();
+        volatile Versions versions = new Versions(new int[4], new String[4], 0);
+        volatile int mergeSeq;
+        final ReentrantLock writeLock = new ReentrantLock();
     }
 
     private final ConcurrentHashMap<String, Bucket> map = new ConcurrentHashMap<>();
 
+    private final boolean acceptOutOfOrder;
+    private final RetentionPolicy retention;
+    private final ScheduledExecutorService compactor;
+
+    public TimeMap() {
+        this(false);
+    }
+
+    /**
+     * @param acceptOutOfOrder false 时同一个 key 的 timestamp 必须不减（LeetCode 981 的保证），乱序 set 直接抛异常；
+     *                         true 时乱序写入先进每个 key 的小暂存区，攒一批再合并，get 照样正确
+     */
+    public TimeMap(boolean acceptOutOfOrder) {
+        this.acceptOutOfOrder = acceptOutOfOrder;
+        this.retention = null;
+        this.compactor = null;
+    }
+
+    /**
+     * 带保留策略：后台线程每 compactIntervalMs 按 retention 裁一遍所有 key。
+     * 被裁掉的时间点上 get 会返回 ""（或者更早能看到的版本已经没有了），这是保留策略本身的语义
+     */
+    public TimeMap(RetentionPolicy retention, long compactIntervalMs) {
+        this(false, retention, compactIntervalMs);
+    }
+
+    public TimeMap(boolean acceptOutOfOrder, RetentionPolicy retention, long compactIntervalMs) {
+        if (compactIntervalMs <= 0) {
+            throw new IllegalArgumentException("compactIntervalMs must be > 0");
+        }
+        this.acceptOutOfOrder = acceptOutOfOrder;
+        this.retention = Objects.requireNonNull(retention);
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "time-map-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        compactor.scheduleWithFixedDelay(this::compact, compactIntervalMs, compactIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
     public void set(String key, String value, int timestamp) {
-        Bucket b = map.computeIfAbsent(key, k -> new Bucket());
-        b.rw.writeLock().lock();
+        Bucket b = map.get(key);
+        if (b == null) {
+            b = map.computeIfAbsent(key, k -> new Bucket());
+        }
+        b.writeLock.lock();
         try {
-            // LeetCode 981 保证同一个 key 的 timestamp 递增 -> append 就行
-            b.list.add(new Node(value, timestamp));
+            Versions v = b.versions;
+            int size = v.size;
+            if (size > 0 && timestamp < v.ts[size - 1]) {
+                if (!acceptOutOfOrder) {
+                    throw new IllegalArgumentException("timestamp " + timestamp + " < latest " + v.ts[size - 1]
+                            + " for key " + key + "; use new TimeMap(true) for out-of-order writes");
+                }
+                stage(b, v, timestamp, value);
+                return;
+            }
+            // 按顺序到达 -> append 就行
+            if (size == v.ts.length) {
+                // 扩容：拷到新数组，追加完再整体发布；还在读旧 Versions 的线程看到的仍是完整的旧前缀
+                int newCap = size + (size >> 1);
+                Versions grown = new Versions(Arrays.copyOf(v.ts, newCap), Arrays.copyOf(v.vals, newCap), size,
+                        v.stagedTs, v.stagedVals, v.staged);
+                grown.ts[size] = timestamp;
+                grown.vals[size] = value;
+                grown.size = size + 1;
+                b.versions = grown;
+            } else {
+                v.ts[size] = timestamp;
+                v.vals[size] = value;
+                v.size = size + 1;
+            }
         } finally {
-            b.rw.writeLock().unlock();
+            b.writeLock.unlock();
+        }
+    }
+
+    // 调用方持有 writeLock
+    private static void stage(Bucket b, Versions v, int timestamp, String value) {
+        if (v.stagedTs == null) {
+            // 主数组共用，只是多挂一个暂存区；旧 Versions 的 size 不会再变，看不到之后的写入
+            v = new Versions(v.ts, v.vals, v.size, new int[STAGE_CAPACITY], new String[STAGE_CAPACITY], 0);
+            v.stagedTs[0] = timestamp;
+            v.stagedVals[0] = value;
+            v.staged = 1;
+            b.versions = v;
+            return;
+        }
+        int m = v.staged;
+        v.stagedTs[m] = timestamp;
+        v.stagedVals[m] = value;
+        v.staged = m + 1;
+        if (m + 1 == STAGE_CAPACITY) {
+            merge(b);
+        }
+    }
+
+    /**
+     * 把暂存区合并进主数组并发布一个没有暂存区的 Versions（调用方持有 writeLock）。
+     *
+     * 主数组还有空位时原地合并：从尾部往前归并，只动比最早的暂存 timestamp 大的那一段，
+     * 对“基本有序、偶尔晚到一点”的写入这段很短，所以乱序写入的均摊代价接近 O(1)，和 key 的版本总数无关。
+     * 原地改动期间用 mergeSeq 挡住读线程。空位不够时才拷到 1.5 倍的新数组（和 append 扩容一样均摊）
+     */
+    private static void merge(Bucket b) {
+        Versions v = b.versions;
+        int n = v.size;
+        int m = v.staged;
+        if (m == 0) {
+            if (v.stagedTs != null) {
+                b.versions = new Versions(v.ts, v.vals, n);
+            }
+            return;
+        }
+        int[] sTs = Arrays.copyOf(v.stagedTs, m);
+        String[] sVals = Arrays.copyOf(v.stagedVals, m);
+        // 最多 32 个，插入排序；稳定，相同 timestamp 后写的排后面
+        for (int i = 1; i < m; i++) {
+            int t = sTs[i];
+            String val = sVals[i];
+            int j = i - 1;
+            while (j >= 0 && sTs[j] > t) {
+                sTs[j + 1] = sTs[j];
+                sVals[j + 1] = sVals[j];
+                j--;
+            }
+            sTs[j + 1] = t;
+            sVals[j + 1] = val;
+        }
+        int total = n + m;
+        // 相同 timestamp 时主数组的排前面，暂存的（后写的）排后面，和 get 的规则一致
+        int p = bs(v.ts, n, sTs[0]) + 1;
+        int[] ts = v.ts;
+        String[] vals = v.vals;
+        boolean inPlace = total <= ts.length;
+        if (inPlace) {
+            b.mergeSeq++;
+            VarHandle.storeStoreFence();
+        } else {
+            int cap = Math.max(4, total + (total >> 1));
+            ts = new int[cap];
+            vals = new String[cap];
+            System.arraycopy(v.ts, 0, ts, 0, p);
+            System.arraycopy(v.vals, 0, vals, 0, p);
+        }
+        // 从后往前归并，原地时不会覆盖还没读到的主数组元素
+        int i = n - 1, j = m - 1, k = total - 1;
+        while (j >= 0) {
+            if (i >= p && v.ts[i] > sTs[j]) {
+                ts[k] = v.ts[i];
+                vals[k--] = v.vals[i--];
+            } else {
+                ts[k] = sTs[j];
+                vals[k--] = sVals[j--];
+            }
+        }
+        if (!inPlace) {
+            System.arraycopy(v.ts, p, ts, p, i - p + 1);
+            System.arraycopy(v.vals, p, vals, p, i - p + 1);
+        }
+        b.versions = new Versions(ts, vals, total);
+        if (inPlace) {
+            b.mergeSeq++;
         }
     }
 
     public String get(String key, int timestamp) {
         Bucket b = map.get(key);
         if (b == null) return "";
-        b.rw.readLock().lock();
+        String val = lookup(b, timestamp);
+        return val == null ? "" : val;
+    }
+
+    // 没有乱序合并时 mergeSeq 不变，循环只走一次
+    private static String lookup(Bucket b, int timestamp) {
+        while (true) {
+            int seq = b.mergeSeq;
+            if ((seq & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            String val = lookup(b.versions, timestamp);
+            VarHandle.acquireFence();
+            if (b.mergeSeq == seq) {
+                return val;
+            }
+        }
+    }
+
+    // 主数组二分 + 暂存区线性扫；timestamp 相同时暂存区里的（后写的）优先。没有则 null
+    private static String lookup(Versions v, int timestamp) {
+        int i = bs(v.ts, v.size, timestamp);
+        String best = i < 0 ? null : v.vals[i];
+        int m = v.staged;
+        if (m == 0) {
+            return best;
+        }
+        int bestTs = i < 0 ? Integer.MIN_VALUE : v.ts[i];
+        for (int j = 0; j < m; j++) {
+            int t = v.stagedTs[j];
+            if (t <= timestamp && (best == null || t >= bestTs)) {
+                best = v.stagedVals[j];
+                bestTs = t;
+            }
+        }
+        return best;
+    }
+
+    // 需要连续有序数组的地方（history / compact）先把暂存区合并掉；调用方持有 writeLock
+    private static Versions sorted(Bucket b) {
+        if (b.versions.staged > 0) {
+            merge(b);
+        }
+        return b.versions;
+    }
+
+    /**
+     * 按保留策略裁一遍，返回丢掉的版本数。后台 compactor 定期调用，也可以手动调。
+     *
+     * 裁剪是拷一份留下来的尾部、再整体发布一个新的 Versions：正在读旧 Versions 的线程不受影响，
+     * 读线程全程不加锁；只会和同一个 key 的 set 抢一下 writeLock
+     */
+    public long compact() {
+        if (retention == null) {
+            return 0;
+        }
+        long dropped = 0;
+        for (Bucket b : map.values()) {
+            b.writeLock.lock();
+            try {
+                Versions v = sorted(b);
+                int size = v.size;
+                int from = Math.min(retention.firstKept(v.ts, size), size - 1);
+                if (from <= 0) {
+                    continue;
+                }
+                int kept = size - from;
+                int newCap = Math.max(4, kept + (kept >> 1));
+                int[] ts = new int[newCap];
+                String[] vals = new String[newCap];
+                System.arraycopy(v.ts, from, ts, 0, kept);
+                System.arraycopy(v.vals, from, vals, 0, kept);
+                b.versions = new Versions(ts, vals, kept);
+                dropped += from;
+            } finally {
+                b.writeLock.unlock();
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * 所有 key 在 timestamp 时刻的值，懒计算：每个 entry 在被消费时才二分查找，不会先拷一份整张表。
+     * 在那个时刻还没有版本的 key 直接跳过。
+     *
+     * 底下是 ConcurrentHashMap 的 spliterator，能按桶区间拆分，所以 parallel() 可以直接用。
+     * 默认模式下每个 key 只追加更大的 timestamp，timestamp 不超过已写入的最大值时，结果不受并发 set 影响。
+     * new TimeMap(true) 接受乱序写入：并发 set 一个不超过 timestamp 的旧版本会改变结果，
+     * 这个 key 的值取决于遍历到它时那条乱序写入是否已经进了暂存区，所以只在没有并发乱序写入时才是一致的快照。
+     * 遍历期间新建的 key 可能看得到也可能看不到
+     */
+    public Stream<Map.Entry<String, String>> snapshotAt(int timestamp) {
+        return StreamSupport.stream(new SnapshotSpliterator(map.entrySet().spliterator(), timestamp), false);
+    }
+
+    private static final class SnapshotSpliterator implements Spliterator<Map.Entry<String, String>> {
+        private final Spliterator<Map.Entry<String, Bucket>> buckets;
+        private final int timestamp;
+        // spliterator 同一时间只被一个线程用：命中结果放在字段里，lambda 只建一次，每个元素只分配交出去的 entry
+        private String hitKey;
+        private String hitVal;
+        private final Consumer<Map.Entry<String, Bucket>> probe;
+
+        SnapshotSpliterator(Spliterator<Map.Entry<String, Bucket>> buckets, int timestamp) {
+            this.buckets = buckets;
+            this.timestamp = timestamp;
+            this.probe = e -> {
+                String val = lookup(e.getValue(), this.timestamp);
+                if (val != null) {
+                    hitKey = e.getKey();
+                    hitVal = val;
+                }
+            };
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Map.Entry<String, String>> action) {
+            // 跳过这个时刻还没有版本的 key，直到交出一个或者底下的 spliterator 用完
+            while (hitKey == null) {
+                if (!buckets.tryAdvance(probe)) {
+                    return false;
+                }
+            }
+            Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<>(hitKey, hitVal);
+            hitKey = null;
+            hitVal = null;
+            action.accept(entry);
+            return true;
+        }
+
+        @Override
+        public Spliterator<Map.Entry<String, String>> trySplit() {
+            Spliterator<Map.Entry<String, Bucket>> prefix = buckets.trySplit();
+            return prefix == null ? null : new SnapshotSpliterator(prefix, timestamp);
+        }
+
+        @Override
+        public long estimateSize() {
+            return buckets.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return CONCURRENT | DISTINCT | NONNULL;
+        }
+    }
+
+    /**
+     * key 在 [from, to] 之间的所有版本，直接指向内部数组的一段，不拷贝。
+     * 数组只追加、裁剪时换新数组，所以 view 拿到之后内容就固定了：之后的 set / compact 都看不到。
+     * acceptOutOfOrder 模式例外：晚到的写入会原地插进已有区间，所以先合并暂存区，再拷出这一段
+     */
+    public History history(String key, int from, int to) {
+        Bucket b = map.get(key);
+        if (b == null || from > to) {
+            return History.EMPTY;
+        }
+        if (!acceptOutOfOrder) {
+            Versions v = b.versions;
+            int hi = bs(v.ts, v.size, to) + 1;
+            int lo = lowerBound(v.ts, hi, from);
+            return new History(v.ts, v.vals, lo, hi);
+        }
+        // 乱序模式下之后的原地合并可能改写这一段，只能拷一份
+        b.writeLock.lock();
         try {
-            return bs(b.list, timestamp);
+            Versions v = sorted(b);
+            int hi = bs(v.ts, v.size, to) + 1;
+            int lo = lowerBound(v.ts, hi, from);
+            return new History(Arrays.copyOfRange(v.ts, lo, hi), Arrays.copyOfRange(v.vals, lo, hi), 0, hi - lo);
         } finally {
-            b.rw.readLock().unlock();
+            b.writeLock.unlock();
+        }
+    }
+
+    public static final class History {
+        static final History EMPTY = new History(new int[0], new String[0], 0, 0);
+
+        private final int[] ts;
+        private final String[] vals;
+        private final int from;
+        private final int to;
+
+        private History(int[] ts, String[] vals, int from, int to) {
+            this.ts = ts;
+            this.vals = vals;
+            this.from = from;
+            this.to = to;
+        }
+
+        public int size() {
+            return to - from;
+        }
+
+        public int timestampAt(int i) {
+            return ts[from + Objects.checkIndex(i, size())];
+        }
+
+        public String valueAt(int i) {
+            return vals[from + Objects.checkIndex(i, size())];
+        }
+
+        /** 只读的 List 视图，同样不拷贝 */
+        public List<String> values() {
+            return new AbstractList<String>() {
+                @Override
+                public String get(int index) {
+                    return valueAt(index);
+                }
+
+                @Override
+                public int size() {
+                    return History.this.size();
+                }
+            };
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = from; i < to; i++) {
+                if (i > from) sb.append(", ");
+                sb.append(ts[i]).append('=').append(vals[i]);
+            }
+            return sb.append(']').toString();
+        }
+    }
+
+    /** key 当前保留的版本数 */
+    public int versionCount(String key) {
+        Bucket b = map.get(key);
+        if (b == null) return 0;
+        Versions v = b.versions;
+        return v.size + v.staged;
+    }
+
+    @Override
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
         }
     }
 
-    private String bs(List<Node> list, int ts) {
-        int lo = 0, hi = list.size() - 1;
+    // 返回最后一个 ts[i] <= target 的下标，没有则 -1
+    static int bs(int[] ts, int size, int target) {
+        int lo = 0, hi = size - 1;
         while (lo <= hi) {
-            int mid = lo + (hi - lo) / 2;
-            int midTs = list.get(mid).ts;
-            if (midTs <= ts) lo = mid + 1;
+            int mid = (lo + hi) >>> 1;
+            if (ts[mid] <= target) lo = mid + 1;
             else hi = mid - 1;
         }
-        return hi < 0 ? "" : list.get(hi).val;
+        return hi;
+    }
+
+    // 返回第一个 ts[i] >= target 的下标，没有则 size
+    static int lowerBound(int[] ts, int size, int target) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ts[mid] < target) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // 只留最近 3 个版本，手动 compact
+        TimeMap last3 = new TimeMap(RetentionPolicy.keepLast(3), 60_000);
+        for (int t = 1; t <= 10; t++) last3.set("cfg", "v" + t, t * 10);
+        System.out.println("keepLast(3): dropped " + last3.compact() + ", left " + last3.versionCount("cfg")
+                + ", get(85) = " + last3.get("cfg", 85) + ", get(75) = '" + last3.get("cfg", 75) + "'");
+        last3.close();
+
+        // horizon = 45：45 之前的版本只留最新的那个（ts=40），get(t >= 45) 的结果不变
+        TimeMap byHorizon = new TimeMap(RetentionPolicy.horizon(() -> 45), 60_000);
+        for (int t = 1; t <= 10; t++) byHorizon.set("cfg", "v" + t, t * 10);
+        System.out.println("horizon(45): dropped " + byHorizon.compact() + ", left " + byHorizon.versionCount("cfg")
+                + ", get(45) = " + byHorizon.get("cfg", 45) + ", get(35) = '" + byHorizon.get("cfg", 35) + "'");
+        byHorizon.close();
+
+        // 后台 compactor 边裁边读：读线程一直能读到最新值，不会被挡住
+        try (TimeMap bg = new TimeMap(RetentionPolicy.keepLast(100), 5)) {
+            Thread reader = new Thread(() -> {
+                long misses = 0;
+                for (int i = 0; i < 2_000_000; i++) {
+                    if (bg.get("k" + (i & 15), Integer.MAX_VALUE).isEmpty()) misses++;
+                }
+                System.out.println("reader finished, misses after first write = " + misses);
+            });
+            for (int k = 0; k < 16; k++) bg.set("k" + k, "v0", 0);
+            reader.start();
+            for (int t = 1; t <= 200_000; t++) bg.set("k" + (t & 15), "v" + t, t);
+            reader.join();
+            Thread.sleep(20);
+            System.out.println("versions of k0 after background compaction: " + bg.versionCount("k0"));
+        }
+
+        TimeMap tm = new TimeMap();
+        for (int t = 1; t <= 10; t++) tm.set("cfg", "v" + t, t * 10);
+        History h = tm.history("cfg", 25, 60);
+        System.out.println("history(cfg, 25, 60) = " + h + ", values = " + h.values());
+
+        // 乱序写入：基本有序，5% 的写入晚到最多 50 个 tick，对照 TreeMap 检查 get
+        TimeMap ooo = new TimeMap(true);
+        TreeMap<Integer, String> expected = new TreeMap<>();
+        Random rnd = new Random(1);
+        int writes = 1_000_000;
+        int[] tsTrace = new int[writes];
+        String[] valTrace = new String[writes];
+        for (int t = 0; t < writes; t++) {
+            tsTrace[t] = rnd.nextInt(100) < 5 ? Math.max(0, t - 1 - rnd.nextInt(50)) : t;
+            valTrace[t] = "v" + t;
+            expected.put(tsTrace[t], valTrace[t]);
+        }
+        long start = System.nanoTime();
+        for (int t = 0; t < writes; t++) {
+            ooo.set("k", valTrace[t], tsTrace[t]);
+        }
+        long setNanos = System.nanoTime() - start;
+        int wrong = 0;
+        for (int i = 0; i < 100_000; i++) {
+            int q = rnd.nextInt(writes + 10);
+            Map.Entry<Integer, String> e = expected.floorEntry(q);
+            if (!ooo.get("k", q).equals(e == null ? "" : e.getValue())) wrong++;
+        }
+        System.out.printf("out-of-order: %d sets at %.0f ns/set, %d wrong gets out of 100000%n",
+                writes, (double) setNanos / writes, wrong);
+        try {
+            tm.set("cfg", "late", 5);
+        } catch (IllegalArgumentException e) {
+            System.out.println("strict mode: " + e.getMessage());
+        }
+
+        // 100 万个 key 的快照：顺序 vs parallel()，偶数 key 在 ts=1 时刻还没有版本
+        int keys = 1_000_000;
+        for (int k = 0; k < keys; k++) {
+            tm.set("key-" + k, "a" + k, k % 2 == 0 ? 2 : 1);
+            tm.set("key-" + k, "b" + k, 3);
+        }
+        for (int round = 0; round < 3; round++) {
+            long t0 = System.nanoTime();
+            long seq = tm.snapshotAt(1).count();
+            long t1 = System.nanoTime();
+            long par = tm.snapshotAt(1).parallel().count();
+            long t2 = System.nanoTime();
+            System.out.printf("snapshotAt(1): sequential %d keys in %d ms, parallel %d keys in %d ms%n",
+                    seq, (t1 - t0) / 1_000_000, par, (t2 - t1) / 1_000_000);
+        }
     }
 }
@@ -0,0 +1,227 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.*;
+
+/**
+ * TimeMap 的内存、单线程 get 速度，以及读多写少（99:1）多线程吞吐的对比（非 JMH，粗略数字）。
+ * 用法：java TimeMapBenchmark [keys] [versionsPerKey] [mixedMs]，默认 1000 * 10000 = 1000 万个版本。
+ * 多线程部分用 ../benchmark 下的 ConcurrentBenchmark，编译：javac -sourcepath .:../benchmark -d out *.java
+ */
+public class TimeMapBenchmark {
+
+    // 原来的布局：每个版本一个 Node，放在 ArrayList 里，作为对比基线
+    static final class NodeListTimeMap {
+        private static final class Node {
+            final int ts;
+            final String val;
+            Node(String val, int ts) { this.val = val; this.ts = ts; }
+        }
+
+        private static final class Bucket {
+            final ArrayList<Node> list = new ArrayList<>();
+            final ReadWriteLock rw = new ReentrantReadWriteLock();
+        }
+
+        private final ConcurrentHashMap<String, Bucket> map = new ConcurrentHashMap<>();
+
+        void set(String key, String value, int timestamp) {
+            Bucket b = map.computeIfAbsent(key, k -> new Bucket());
+            b.rw.writeLock().lock();
+            try {
+                b.list.add(new Node(value, timestamp));
+            } finally {
+                b.rw.writeLock().unlock();
+            }
+        }
+
+        String get(String key, int timestamp) {
+            Bucket b = map.get(key);
+            if (b == null) return "";
+            b.rw.readLock().lock();
+            try {
+                List<Node> list = b.list;
+                int lo = 0, hi = list.size() - 1;
+                while (lo <= hi) {
+                    int mid = lo + (hi - lo) / 2;
+                    if (list.get(mid).ts <= timestamp) lo = mid + 1;
+                    else hi = mid - 1;
+                }
+                return hi < 0 ? "" : list.get(hi).val;
+            } finally {
+                b.rw.readLock().unlock();
+            }
+        }
+    }
+
+    // 并行数组 + 每个 key 一把 ReentrantReadWriteLock：读锁本身要 CAS 共享的 state，读线程之间也会抢 cache line
+    static final class RwLockTimeMap {
+        private static final class Bucket {
+            int[] ts = new int[4];
+            String[] vals = new String[4];
+            int size;
+            final ReadWriteLock rw = new ReentrantReadWriteLock();
+        }
+
+        private final ConcurrentHashMap<String, Bucket> map = new ConcurrentHashMap<>();
+
+        void set(String key, String value, int timestamp) {
+            Bucket b = map.computeIfAbsent(key, k -> new Bucket());
+            b.rw.writeLock().lock();
+            try {
+                if (b.size == b.ts.length) {
+                    int newCap = b.size + (b.size >> 1);
+                    b.ts = Arrays.copyOf(b.ts, newCap);
+                    b.vals = Arrays.copyOf(b.vals, newCap);
+                }
+                b.ts[b.size] = timestamp;
+                b.vals[b.size] = value;
+                b.size++;
+            } finally {
+                b.rw.writeLock().unlock();
+            }
+        }
+
+        String get(String key, int timestamp) {
+            Bucket b = map.get(key);
+            if (b == null) return "";
+            b.rw.readLock().lock();
+            try {
+                int i = TimeMap.bs(b.ts, b.size, timestamp);
+                return i < 0 ? "" : b.vals[i];
+            } finally {
+                b.rw.readLock().unlock();
+            }
+        }
+    }
+
+    interface Setter { void set(String key, String value, int ts); }
+    interface Getter { String get(String key, int ts); }
+
+    static long usedHeap() {
+        Runtime rt = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {}
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static void fill(Setter setter, String[] keys, int versions, String value) {
+        for (int v = 0; v < versions; v++) {
+            for (String key : keys) {
+                setter.set(key, value, v * 10);
+            }
+        }
+    }
+
+    static double getsPerSecond(Getter getter, String[] keys, int versions, long durationMs) {
+        long seed = 42;
+        long n = 0;
+        long sink = 0;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(durationMs);
+        while (System.nanoTime() < deadline) {
+            for (int i = 0; i < 1024; i++) {
+                seed ^= seed << 13;
+                seed ^= seed >>> 7;
+                seed ^= seed << 17;
+                String key = keys[(int) ((seed >>> 1) % keys.length)];
+                int ts = (int) ((seed >>> 20) % (versions * 10L));
+                sink += getter.get(key, ts).length();
+            }
+            n += 1024;
+        }
+        if (sink == 42) System.out.println();
+        return n * 1000.0 / durationMs;
+    }
+
+    /**
+     * threads 个线程，每 100 次操作里 99 次随机 get、1 次 set。
+     * 每个线程只往自己那一份 key 里写（key 下标 % threads == 线程号），保证同一个 key 的 timestamp 递增；
+     * 同一个 map 会跑好几轮，每轮从上一轮写到的最大 timestamp 之后接着写
+     */
+    static double mixedOpsPerSecond(Setter setter, Getter getter, String[] keys, AtomicInteger lastTs, int threads,
+                                    long durationMs) throws InterruptedException {
+        return ConcurrentBenchmark.opsPerSecond(threads, durationMs, (id, deadline) -> {
+            long seed = 0x9E3779B97F4A7C15L * (id + 1);
+            int nextTs = lastTs.get() + 10;
+            int mine = id;
+            long n = 0;
+            long sink = 0;
+            while (System.nanoTime() < deadline) {
+                for (int i = 0; i < 100; i++) {
+                    seed ^= seed << 13;
+                    seed ^= seed >>> 7;
+                    seed ^= seed << 17;
+                    if (i == 0 && mine < keys.length) {
+                        setter.set(keys[mine], "w", nextTs);
+                        mine += threads;
+                        if (mine >= keys.length) {
+                            mine = id;
+                            nextTs += 10;
+                        }
+                    } else {
+                        String key = keys[(int) ((seed >>> 1) % keys.length)];
+                        sink += getter.get(key, (int) ((seed >>> 20) % nextTs)).length();
+                    }
+                }
+                n += 100;
+            }
+            lastTs.accumulateAndGet(nextTs, Math::max);
+            return n + (sink == 42 ? 1 : 0);
+        });
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int keyCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int versions = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        long total = (long) keyCount * versions;
+        String[] keys = new String[keyCount];
+        for (int i = 0; i < keyCount; i++) keys[i] = "key-" + i;
+        // 所有版本共享同一个 value 字符串，只测版本本身的开销
+        String value = "v";
+
+        long before = usedHeap();
+        NodeListTimeMap legacy = new NodeListTimeMap();
+        fill(legacy::set, keys, versions, value);
+        long legacyBytes = usedHeap() - before;
+        getsPerSecond(legacy::get, keys, versions, 500);
+        double legacyGets = getsPerSecond(legacy::get, keys, versions, 2000);
+        legacy = null;
+
+        before = usedHeap();
+        TimeMap compact = new TimeMap();
+        fill(compact::set, keys, versions, value);
+        long compactBytes = usedHeap() - before;
+        getsPerSecond(compact::get, keys, versions, 500);
+        double compactGets = getsPerSecond(compact::get, keys, versions, 2000);
+
+        System.out.printf("%,d versions (%d keys x %d)%n", total, keyCount, versions);
+        System.out.printf("Node + ArrayList : %6.1f bytes/version, %,12.0f gets/s%n", (double) legacyBytes / total, legacyGets);
+        System.out.printf("int[] + String[] : %6.1f bytes/version, %,12.0f gets/s%n", (double) compactBytes / total, compactGets);
+        if (compact.get(keys[0], 5).isEmpty()) System.out.println("unexpected miss");
+        compact = null;
+
+        // 99% get / 1% set，每个 key 先灌 1000 个版本
+        long mixedMs = args.length > 2 ? Long.parseLong(args[2]) : 1000;
+        int mixedVersions = 1_000;
+        RwLockTimeMap rw = new RwLockTimeMap();
+        TimeMap optimistic = new TimeMap();
+        fill(rw::set, keys, mixedVersions, value);
+        fill(optimistic::set, keys, mixedVersions, value);
+        System.out.printf("%n99:1 get/set, %d keys x %d versions (%d cores)%n", keyCount, mixedVersions,
+                Runtime.getRuntime().availableProcessors());
+        System.out.printf("%8s %20s %20s%n", "threads", "RW lock ops/s", "lock-free get ops/s");
+        AtomicInteger rwTs = new AtomicInteger(mixedVersions * 10);
+        AtomicInteger freeTs = new AtomicInteger(mixedVersions * 10);
+        for (int threads : new int[]{1, 4, 16}) {
+            mixedOpsPerSecond(rw::set, rw::get, keys, rwTs, threads, mixedMs / 4);
+            double rwOps = mixedOpsPerSecond(rw::set, rw::get, keys, rwTs, threads, mixedMs);
+            mixedOpsPerSecond(optimistic::set, optimistic::get, keys, freeTs, threads, mixedMs / 4);
+            double freeOps = mixedOpsPerSecond(optimistic::set, optimistic::get, keys, freeTs, threads, mixedMs);
+            System.out.printf("%8d %,20.0f %,20.0f%n", threads, rwOps, freeOps);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * 回放 key 访问 trace，比较各淘汰策略的命中率：每次访问先 get，miss 就 put。
+ *
+ * 用法：java CacheSimulator [traceFile] [capacity]
+ * trace 文件每行一个访问，取每行第一个空白分隔的字段当 key。
+ * 不给文件就生成一个：Zipf(0.8) 的热点访问里，每 50k 次插一段 20k 个只出现一次的 key 的扫描。
+ */
+public class CacheSimulator {
+
+    static Map<String, Supplier<LruCacheBenchmark.Cache<Object>>> policies(int capacity) {
+        Map<String, Supplier<LruCacheBenchmark.Cache<Object>>> policies = new LinkedHashMap<>();
+        policies.put("LruCacheSimple", () -> {
+            LruCacheSimple<Object, Object> c = new LruCacheSimple<>(capacity);
+            return LruCacheBenchmark.wrap(c::get, c::put);
+        });
+        policies.put("ConcurrentLruCache", () -> {
+            ConcurrentLruCache<Object, Object> c = new ConcurrentLruCache<>(capacity);
+            return LruCacheBenchmark.wrap(c::get, c::put);
+        });
+        policies.put("W-TinyLFU", () -> {
+            WTinyLfuCache<Object, Object> c = new WTinyLfuCache<>(capacity);
+            return LruCacheBenchmark.wrap(c::get, c::put);
+        });
+        return policies;
+    }
+
+    static Object[] readTrace(Path file) throws IOException {
+        List<Object> keys = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty()) continue;
+            keys.add(trimmed.split("\\s+", 2)[0]);
+        }
+        return keys.toArray();
+    }
+
+    static Object[] syntheticTrace() {
+        int[] hot = LruCacheBenchmark.zipfTrace(50_000, 1_000_000, 0.8, 7);
+        List<Object> keys = new ArrayList<>();
+        int scanKey = 1_000_000;
+        for (int i = 0; i < hot.length; i++) {
+            keys.add(hot[i]);
+            if (i % 50_000 == 49_999) {
+                for (int j = 0; j < 20_000; j++) keys.add(scanKey++);
+            }
+        }
+        return keys.toArray();
+    }
+
+    public static void main(String[] args) throws IOException {
+        Object[] trace = args.length > 0 ? readTrace(Paths.get(args[0])) : syntheticTrace();
+        int capacity = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+        System.out.printf("%,d accesses, %,d distinct keys, capacity %,d%n",
+                trace.length, new HashSet<>(Arrays.asList(trace)).size(), capacity);
+        for (Map.Entry<String, Supplier<LruCacheBenchmark.Cache<Object>>> e : policies(capacity).entrySet()) {
+            System.out.printf("  %-20s %6.2f%%%n", e.getKey(), LruCacheBenchmark.hitRate(e.getValue().get(), trace) * 100);
+        }
+    }
+}
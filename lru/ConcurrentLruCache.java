@@ -1,90 +1,383 @@
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
+/**
+ * 读写都不直接改链表（思路同 Caffeine）：
+ * - get 命中：查 ConcurrentHashMap，把 node 记进一个按线程分条的有损环形缓冲区就返回；
+ *   缓冲区满了才 tryLock 做一次维护，抢不到锁就算了（丢几条访问记录只会让 LRU 顺序稍微不准）
+ * - put：先更新 map，再把“新增了哪个 node”放进有界的写缓冲区，写缓冲区不能丢，满了就阻塞拿锁清空
+ * - 维护（drainBuffers）：持有 lock，先回放写缓冲区（挂到链表头），再回放读缓冲区（挪到链表头），最后按容量淘汰尾部
+ *
+ * 容量可以按条目数（new ConcurrentLruCache(capacity)），也可以按权重之和（Weigher + maximumWeight），
+ * 比如用 Weigher.retainedHeapSize() 按估算的字节数限制。
+ *
+ * 过期：expireAfterWrite（写入后多久过期）、expireAfterAccess（多久没访问就过期），也可以 put 时单独指定 TTL。
+ * 过期的条目 get 立刻就看不到了；真正删除在维护时由 TimerWheel 做，每个条目均摊 O(1)，不用定期扫整张表。
+ * 代价是两次维护之间缓存可能超过容量，最多超出写缓冲区里那些条目。
+ */
 public class ConcurrentLruCache<K, V> {
 
-    private final int capacity;
+    private static final int READ_BUFFER_SIZE = 16;
+    private static final int WRITE_BUFFER_SIZE = 128;
+    private static final int READ_STRIPES =
+            Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1);
+    private static final long NEVER = Long.MAX_VALUE;
+    // expireAfterAccess 的过期时间变化不到 1ms 就不写，免得每次读都写一次共享的 node
+    private static final long TOUCH_TOLERANCE_NANOS = 1_000_000;
+
+    private final long maximumWeight;
+    private final Weigher<? super K, ? super V> weigher;
+    private final long expireAfterWriteNanos;
+    private final long expireAfterAccessNanos;
+    // 所有时间都是相对 startNanos 的纳秒数，从 0 开始单调递增，NEVER 可以直接比较
+    private final long startNanos = System.nanoTime();
+    private final TimerWheel timerWheel = new TimerWheel(0);
     private final ConcurrentHashMap<K, Node<K, V>> map;
     private final ReentrantLock lock = new ReentrantLock();
 
     // 哨兵节点，永远不存真实数据，简化链表操作
     private final Node<K, V> head;
     private final Node<K, V> tail;
+    // 链表里所有节点的权重之和，只在持有 lock 时读写
+    private long totalWeight;
+
+    private final RingBuffer<Node<K, V>>[] readBuffers;
+    private final RingBuffer<Node<K, V>> writeBuffer = new RingBuffer<>(WRITE_BUFFER_SIZE);
 
-    private static class Node<K, V> {
-        K key;
-        V value;
+    private static class Node<K, V> extends TimerWheel.Timer {
+        final K key;
+        volatile V value;
+        // 写线程算好的权重、过期时间，和 value 一起在 synchronized(node) 里更新
+        volatile int weight;
+        volatile long writeDeadline = NEVER;
+        volatile long accessDeadline = NEVER;
+        // 以下只在持有 lock 时读写：
+        // prev / next；prev == null 表示不在链表里（还没回放，或者已经被淘汰）
         Node<K, V> prev;
         Node<K, V> next;
+        // 已经计入 totalWeight 的权重
+        int policyWeight;
+        boolean evicted;
 
-        Node() { }
+        Node() {
+            this.key = null;
+        }
 
-        Node(K key, V value) {
+        Node(K key, V value, int weight) {
             this.key = key;
             this.value = value;
+            this.weight = weight;
+        }
+
+        @Override
+        long deadline() {
+            return Math.min(writeDeadline, accessDeadline);
+        }
+    }
+
+    /**
+     * 多生产者、单消费者（持有 lock 的维护线程）的有界环形缓冲区。
+     * offer 不等待：满了返回 FULL，CAS 抢不到位置返回 CONTENDED，由调用方决定是丢掉还是重试。
+     */
+    static final class RingBuffer<E> {
+        static final int SUCCESS = 0;
+        static final int FULL = 1;
+        static final int CONTENDED = 2;
+
+        private final AtomicReferenceArray<E> slots;
+        private final int mask;
+        private final AtomicLong writeIndex = new AtomicLong();
+        private volatile long readIndex;
+
+        RingBuffer(int size) {
+            this.slots = new AtomicReferenceArray<>(size);
+            this.mask = size - 1;
+        }
+
+        int offer(E e) {
+            long w = writeIndex.get();
+            if (w - readIndex >= slots.length()) {
+                return FULL;
+            }
+            if (!writeIndex.compareAndSet(w, w + 1)) {
+                return CONTENDED;
+            }
+            slots.lazySet((int) (w & mask), e);
+            return SUCCESS;
+        }
+
+        // 只由持有 lock 的线程调用。位置已经抢到但元素还没写进来的槽，留到下一次再读
+        void drainTo(Consumer<E> consumer) {
+            long r = readIndex;
+            long w = writeIndex.get();
+            for (; r < w; r++) {
+                int idx = (int) (r & mask);
+                E e = slots.get(idx);
+                if (e == null) {
+                    break;
+                }
+                slots.lazySet(idx, null);
+                consumer.accept(e);
+            }
+            readIndex = r;
         }
     }
 
     public ConcurrentLruCache(int capacity) {
-        if (capacity <= 0) {
+        this(capacity, Weigher.singleton());
+    }
+
+    /**
+     * 按条目数限制，并且带过期；expireAfterWrite / expireAfterAccess 为 0 表示不按这种方式过期
+     */
+    public ConcurrentLruCache(int capacity, long expireAfterWrite, long expireAfterAccess, TimeUnit unit) {
+        this(capacity, Weigher.singleton(), unit.toNanos(expireAfterWrite), unit.toNanos(expireAfterAccess));
+    }
+
+    /**
+     * 按权重限制容量：所有条目的 weigher 权重之和不超过 maximumWeight。
+     * 单个条目的权重比 maximumWeight 还大的话，放进去之后下一次维护就会被淘汰
+     */
+    public ConcurrentLruCache(long maximumWeight, Weigher<? super K, ? super V> weigher) {
+        this(maximumWeight, weigher, 0, 0);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ConcurrentLruCache(long maximumWeight, Weigher<? super K, ? super V> weigher,
+                              long expireAfterWriteNanos, long expireAfterAccessNanos) {
+        if (maximumWeight <= 0) {
             throw new IllegalArgumentException("capacity must be > 0");
         }
-        this.capacity = capacity;
+        if (expireAfterWriteNanos < 0 || expireAfterAccessNanos < 0) {
+            throw new IllegalArgumentException("expiry durations must be >= 0");
+        }
+        this.maximumWeight = maximumWeight;
+        this.weigher = Objects.requireNonNull(weigher);
+        this.expireAfterWriteNanos = expireAfterWriteNanos;
+        this.expireAfterAccessNanos = expireAfterAccessNanos;
         this.map = new ConcurrentHashMap<>();
         this.head = new Node<>();
         this.tail = new Node<>();
         head.next = tail;
         tail.prev = head;
+        this.readBuffers = new RingBuffer[READ_STRIPES];
+        for (int i = 0; i < READ_STRIPES; i++) {
+            readBuffers[i] = new RingBuffer<>(READ_BUFFER_SIZE);
+        }
     }
 
     public V get(K key) {
-        lock.lock();
-        try {
-            Node<K, V> node = map.get(key);
-            if (node == null) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (node.writeDeadline != NEVER || node.accessDeadline != NEVER) {
+            long now = now();
+            if (node.deadline() - now <= 0) {
+                // 已经过期：当作 miss，顺便试着做一次维护把它删掉
+                tryDrain();
                 return null;
             }
-            // 访问刷新到链表头部（最近使用）
-            moveToHead(node);
-            return node.value;
-        } finally {
-            lock.unlock();
+            if (expireAfterAccessNanos > 0 && now + expireAfterAccessNanos - node.accessDeadline > TOUCH_TOLERANCE_NANOS) {
+                node.accessDeadline = now + expireAfterAccessNanos;
+            }
         }
+        afterRead(node);
+        return node.value;
     }
 
     public void put(K key, V value) {
-        lock.lock();
-        try {
+        put(key, value, expireAfterWriteNanos);
+    }
+
+    /**
+     * 单独给这个条目指定写入后的存活时间，覆盖 expireAfterWrite
+     */
+    public void put(K key, V value, long ttl, TimeUnit unit) {
+        if (ttl <= 0) {
+            throw new IllegalArgumentException("ttl must be > 0");
+        }
+        put(key, value, unit.toNanos(ttl));
+    }
+
+    private void put(K key, V value, long ttlNanos) {
+        int weight = weigher.weigh(key, value);
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight must be >= 0");
+        }
+        long now = ttlNanos > 0 || expireAfterAccessNanos > 0 ? now() : 0;
+        long writeDeadline = ttlNanos > 0 ? now + ttlNanos : NEVER;
+        long accessDeadline = expireAfterAccessNanos > 0 ? now + expireAfterAccessNanos : NEVER;
+        while (true) {
             Node<K, V> node = map.get(key);
-            if (node != null) {
-                // key 已存在：更新 value，移动到头
-                node.value = value;
-                moveToHead(node);
-            } else {
-                // 新 key：创建节点，加到头
-                Node<K, V> newNode = new Node<>(key, value);
-                addToHead(newNode);
-                map.put(key, newNode);
-
-                // 超过容量 → 淘汰尾部（最久未使用）
-                if (map.size() > capacity) {
-                    Node<K, V> lru = tail.prev;
-                    if (lru != head) {
-                        removeNode(lru);
-                        map.remove(lru.key);
-                    }
+            if (node == null) {
+                Node<K, V> newNode = new Node<>(key, value, weight);
+                newNode.writeDeadline = writeDeadline;
+                newNode.accessDeadline = accessDeadline;
+                node = map.putIfAbsent(key, newNode);
+                if (node == null) {
+                    afterWrite(newNode);
+                    return;
                 }
             }
+            // key 已存在：更新 value、权重和过期时间，交给维护线程重新计权重、重新排定时器并挪到链表头
+            synchronized (node) {
+                node.value = value;
+                node.weight = weight;
+                node.writeDeadline = writeDeadline;
+                node.accessDeadline = accessDeadline;
+            }
+            // 刚好被淘汰了的话这次写入就丢了，重新插一次
+            if (map.get(key) == node) {
+                afterWrite(node);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 立即回放所有缓冲区并按容量淘汰
+     */
+    public void cleanUp() {
+        lock.lock();
+        try {
+            drainBuffers();
         } finally {
             lock.unlock();
         }
     }
 
+    private long now() {
+        return System.nanoTime() - startNanos;
+    }
+
+    private void afterRead(Node<K, V> node) {
+        // 按线程 id 分条，不同线程大概率写不同的缓冲区
+        long id = Thread.currentThread().getId();
+        int stripe = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (READ_STRIPES - 1);
+        if (readBuffers[stripe].offer(node) == RingBuffer.FULL) {
+            tryDrain();
+        }
+    }
+
+    private void tryDrain() {
+        if (lock.tryLock()) {
+            try {
+                drainBuffers();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void afterWrite(Node<K, V> node) {
+        while (true) {
+            int result = writeBuffer.offer(node);
+            if (result == RingBuffer.SUCCESS) {
+                if (lock.tryLock()) {
+                    try {
+                        drainBuffers();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                return;
+            }
+            if (result == RingBuffer.FULL) {
+                // 写缓冲区不能丢：满了就等锁，自己清空之后重试
+                lock.lock();
+                try {
+                    drainBuffers();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    // ==== 维护：只在持有 lock 时调用 ====
+
+    @SuppressWarnings("unchecked")
+    private void drainBuffers() {
+        writeBuffer.drainTo(this::onWrite);
+        for (RingBuffer<Node<K, V>> buffer : readBuffers) {
+            buffer.drainTo(this::onAccessed);
+        }
+        // 到期的桶才会被处理；桶里还没到期的（比如期间被访问过、过期时间往后推了）会重新放
+        timerWheel.advance(now(), timer -> evict((Node<K, V>) timer));
+        // 超过容量 → 淘汰尾部（最久未使用）
+        while (totalWeight > maximumWeight) {
+            Node<K, V> lru = tail.prev;
+            if (lru == head) {
+                break;
+            }
+            evict(lru);
+        }
+    }
+
+    // 新增或者更新：还不在链表里就挂上去，已经在就挪到头部，按最新的权重修正 totalWeight
+    private void onWrite(Node<K, V> node) {
+        if (node.evicted) {
+            return;
+        }
+        if (node.prev == null) {
+            addToHead(node);
+        } else {
+            moveToHead(node);
+        }
+        int weight = node.weight;
+        totalWeight += weight - node.policyWeight;
+        node.policyWeight = weight;
+        if (node.deadline() != NEVER) {
+            timerWheel.reschedule(node);
+        } else {
+            timerWheel.deschedule(node);
+        }
+        if (weight > maximumWeight) {
+            // 单个就放不下：直接淘汰它，而不是把别的全部挤掉
+            evict(node);
+        }
+    }
+
+    private void evict(Node<K, V> node) {
+        timerWheel.deschedule(node);
+        removeNode(node);
+        totalWeight -= node.policyWeight;
+        node.evicted = true;
+        map.remove(node.key, node);
+    }
+
+    private void onAccessed(Node<K, V> node) {
+        // 访问记录可能比 add 先到，也可能 node 已经被淘汰：不在链表里就跳过。
+        // expireAfterAccess 推后的过期时间不用在这里重新排定时器，时间轮到期时会重新检查
+        if (node.prev != null) {
+            moveToHead(node);
+        }
+    }
+
     public int size() {
         // size() 本身是非原子的，但这里的需求一般是“近似值”
         return map.size();
     }
 
+    /**
+     * 当前所有条目的权重之和（先做一次维护）
+     */
+    public long weightedSize() {
+        lock.lock();
+        try {
+            drainBuffers();
+            return totalWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
     // ==== 双向链表辅助方法：都只在持有 lock 情况下调用 ====
 
     // 把 node 移到 head 后面（作为最近使用）
@@ -115,13 +408,19 @@ public class ConcurrentLruCache<K, V> {
 
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
-        Node cur = head.next;
-        while(cur != tail) {
-            sb.append(cur.key + ":" + cur.value + ", ");
-            cur = cur.next;
+        lock.lock();
+        try {
+            drainBuffers();
+            StringBuilder sb = new StringBuilder();
+            Node<K, V> cur = head.next;
+            while(cur != tail) {
+                sb.append(cur.key + ":" + cur.value + ", ");
+                cur = cur.next;
+            }
+            return sb.toString();
+        } finally {
+            lock.unlock();
         }
-        return sb.toString();
     }
 
     public static void main(String[] args) throws InterruptedException {
@@ -154,6 +453,30 @@ public class ConcurrentLruCache<K, V> {
 
         System.out.println(cache);
 
+        // 按估算的堆大小限制：1MB 预算，value 从 100 字节到 300KB 不等
+        ConcurrentLruCache<String, byte[]> blobs = new ConcurrentLruCache<>(1 << 20, Weigher.retainedHeapSize());
+        int[] sizes = {100, 300_000, 2_000, 250_000, 50, 400_000, 10_000, 300_000};
+        for (int i = 0; i < sizes.length; i++) {
+            blobs.put("blob" + i, new byte[sizes[i]]);
+        }
+        System.out.println("blobs: " + blobs.size() + " entries, weightedSize = " + blobs.weightedSize()
+                + " bytes (budget " + (1 << 20) + "), blob1 evicted: " + (blobs.get("blob1") == null));
+        // 单个就超过预算的条目放不进来，也不会把别的都挤掉
+        blobs.put("huge", new byte[2 << 20]);
+        System.out.println("after huge: " + blobs.size() + " entries, huge cached: " + (blobs.get("huge") != null));
+
+        // 过期：写入后 100ms 过期，单独给 pinned 一个 1 小时的 TTL
+        ConcurrentLruCache<String, Integer> sessions = new ConcurrentLruCache<>(100, 100, 0, TimeUnit.MILLISECONDS);
+        for (int i = 0; i < 10; i++) {
+            sessions.put("s" + i, i);
+        }
+        sessions.put("pinned", -1, 1, TimeUnit.HOURS);
+        Thread.sleep(150);
+        // 过期的 get 马上就拿不到；cleanUp 时时间轮把它们真正删掉
+        System.out.println("s0 after 150ms: " + sessions.get("s0") + ", pinned: " + sessions.get("pinned"));
+        sessions.cleanUp();
+        System.out.println("after cleanUp: " + sessions.size() + " entries " + sessions);
+
         // cache.put("a", 1);
         // cache.put("b", 2);
         // cache.put("c", 3);
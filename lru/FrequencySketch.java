@@ -0,0 +1,89 @@
+/**
+ * 4-bit count-min sketch，给 W-TinyLFU 估算 key 的近期访问频率。
+ *
+ * - 每个 long 装 16 个 4 bit 计数器（最大 15），一个 key 用 4 个哈希落到 4 个 long 上，
+ *   每个 long 里用的是同一组 4 个计数器中的第 i 个；估计值取 4 个里的最小值
+ * - 老化：累计 increment 了 sampleSize（10 * 最大容量）次就把所有计数器减半，
+ *   过去的热点会慢慢冷下来，不会永远占着缓存
+ *
+ * 不是线程安全的，由调用方加锁。
+ */
+final class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+    // 每个 4 bit 计数器减半之后的掩码（去掉每个计数器最高位移下来的那一位）
+    private static final long RESET_MASK = 0x7777777777777777L;
+    // 每个计数器的最低位，减半时用来统计被舍掉的奇数
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private final long[] table;
+    private final int tableMask;
+    private final int sampleSize;
+    private int size;
+
+    FrequencySketch(int maximumSize) {
+        int n = Integer.highestOneBit(Math.max(maximumSize, 8) * 2 - 1);
+        this.table = new long[n];
+        this.tableMask = n - 1;
+        this.sampleSize = maximumSize * 10 > 0 ? maximumSize * 10 : Integer.MAX_VALUE;
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        // hash 的低 2 位决定用每个 long 里的哪一组 4 个计数器
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size == sampleSize) {
+            reset();
+        }
+    }
+
+    // 计数器已经是 15 就不加了
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        // 每个 key 占 4 个计数器，减半时舍掉的奇数大约对应 odd / 4 次 increment
+        size = (size - (odd >>> 2)) >>> 1;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    private static int spread(int h) {
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        h = ((h >>> 16) ^ h) * 0x45d9f3b;
+        return (h >>> 16) ^ h;
+    }
+}
@@ -0,0 +1,128 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * 粗略估算一个对象保留的堆大小（字节），给 Weigher.retainedHeapSize 用。
+ *
+ * 按 64 位 JVM、开启压缩指针算：对象头 12 字节，引用 4 字节，按 8 字节对齐。
+ * - String、基本类型数组、包装类型、heap ByteBuffer：按实际长度算，比较准
+ * - Collection / Map：容器本身的近似开销 + 递归估算元素（最多往下 4 层，防止环）
+ * - 其他类型：只算对象自己的字段（shallow size，按类缓存），不跟引用走
+ * 共享的对象会被重复计算，只适合做容量预算，不是精确的内存分析。
+ */
+final class HeapSize {
+
+    static final int OBJECT_HEADER = 12;
+    static final int ARRAY_HEADER = 16;
+    static final int REFERENCE = 4;
+    // ConcurrentLruCache.Node（对象头 + key/value/prev/next + weight 等 + 时间轮指针和两个过期时间）加上 ConcurrentHashMap 的 Node
+    static final int ENTRY_OVERHEAD = 64 + 32;
+
+    private static final int MAX_DEPTH = 4;
+
+    private static final ClassValue<Long> SHALLOW_SIZE = new ClassValue<Long>() {
+        @Override
+        protected Long computeValue(Class<?> type) {
+            long size = OBJECT_HEADER;
+            for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (!Modifier.isStatic(f.getModifiers())) {
+                        size += fieldSize(f.getType());
+                    }
+                }
+            }
+            return align(size);
+        }
+    };
+
+    private HeapSize() {
+    }
+
+    static long estimate(Object o) {
+        return estimate(o, 0);
+    }
+
+    private static long estimate(Object o, int depth) {
+        if (o == null) {
+            return 0;
+        }
+        if (o instanceof String) {
+            String s = (String) o;
+            // String 对象 24 字节 + value 数组；全是 Latin-1 字符时一个字符 1 字节（compact strings），否则 2 字节
+            return 24 + align(ARRAY_HEADER + (long) s.length() * (isLatin1(s) ? 1 : 2));
+        }
+        if (o instanceof byte[]) return align(ARRAY_HEADER + ((byte[]) o).length);
+        if (o instanceof char[]) return align(ARRAY_HEADER + 2L * ((char[]) o).length);
+        if (o instanceof int[]) return align(ARRAY_HEADER + 4L * ((int[]) o).length);
+        if (o instanceof long[]) return align(ARRAY_HEADER + 8L * ((long[]) o).length);
+        if (o instanceof double[]) return align(ARRAY_HEADER + 8L * ((double[]) o).length);
+        if (o instanceof Integer || o instanceof Float || o instanceof Short || o instanceof Character
+                || o instanceof Byte || o instanceof Boolean) {
+            return 16;
+        }
+        if (o instanceof Long || o instanceof Double) {
+            return 24;
+        }
+        if (o instanceof ByteBuffer) {
+            ByteBuffer b = (ByteBuffer) o;
+            // direct buffer 的数据不在堆上
+            return 48 + (b.hasArray() ? align(ARRAY_HEADER + b.array().length) : 0);
+        }
+        if (o instanceof Object[]) {
+            Object[] arr = (Object[]) o;
+            long size = align(ARRAY_HEADER + (long) REFERENCE * arr.length);
+            if (depth < MAX_DEPTH) {
+                for (Object e : arr) size += estimate(e, depth + 1);
+            }
+            return size;
+        }
+        if (o instanceof Collection) {
+            Collection<?> c = (Collection<?>) o;
+            // ArrayList 是一个引用数组，链表 / 哈希类容器每个元素大约多一个 24 ~ 32 字节的节点
+            long perElement = o instanceof RandomAccess ? REFERENCE : 32;
+            long size = 40 + perElement * c.size();
+            if (depth < MAX_DEPTH) {
+                for (Object e : c) size += estimate(e, depth + 1);
+            }
+            return size;
+        }
+        if (o instanceof Map) {
+            Map<?, ?> m = (Map<?, ?>) o;
+            // HashMap.Node 32 字节 + 桶数组里的一个引用
+            long size = 64 + 36L * m.size();
+            if (depth < MAX_DEPTH) {
+                for (Map.Entry<?, ?> e : m.entrySet()) {
+                    size += estimate(e.getKey(), depth + 1) + estimate(e.getValue(), depth + 1);
+                }
+            }
+            return size;
+        }
+        if (o.getClass().isArray()) {
+            // 剩下的基本类型数组：short[] / float[] / boolean[]
+            int length = java.lang.reflect.Array.getLength(o);
+            return align(ARRAY_HEADER + (long) length * fieldSize(o.getClass().getComponentType()));
+        }
+        return SHALLOW_SIZE.get(o.getClass());
+    }
+
+    private static boolean isLatin1(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xff) return false;
+        }
+        return true;
+    }
+
+    private static int fieldSize(Class<?> type) {
+        if (type == long.class || type == double.class) return 8;
+        if (type == int.class || type == float.class) return 4;
+        if (type == short.class || type == char.class) return 2;
+        if (type == byte.class || type == boolean.class) return 1;
+        return REFERENCE;
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * LRU 各实现的对比（非 JMH，粗略数字）：
+ * 1. 命中率：单线程回放 Zipf 分布的 key 序列，miss 就 put
+ * 2. 读吞吐：预热后多线程只做 get，线程数 1 .. 2 * 核数；ConcurrentHashMap.get 作为上限基线
+ *
+ * 用法：java LruCacheBenchmark [measureMs]
+ * 多线程部分用 ../benchmark 下的 ConcurrentBenchmark，编译：javac -sourcepath .:../benchmark -d out *.java
+ */
+public class LruCacheBenchmark {
+
+    /**
+     * 各实现的 get/put 签名不一样（返回值、泛型参数），包一层统一接口；CacheSimulator 也用这个
+     */
+    interface Cache<K> {
+        Object get(K key);
+
+        void put(K key, Object value);
+    }
+
+    static final Map<String, Supplier<Cache<Integer>>> CACHES = new LinkedHashMap<>();
+
+    static final int CAPACITY = 10_000;
+    static final int KEYS = 100_000;
+
+    static {
+        CACHES.put("ConcurrentLruCache", () -> {
+            ConcurrentLruCache<Integer, Object> c = new ConcurrentLruCache<>(CAPACITY);
+            return wrap(c::get, c::put);
+        });
+        CACHES.put("Segmented strict", () -> {
+            SegmentedLruCache<Integer, Object> c = new SegmentedLruCache<>(CAPACITY, 16, false);
+            return wrap(c::get, c::put);
+        });
+        CACHES.put("Segmented approximate", () -> {
+            SegmentedLruCache<Integer, Object> c = new SegmentedLruCache<>(CAPACITY, 16, true);
+            return wrap(c::get, c::put);
+        });
+    }
+
+    static <K> Cache<K> wrap(Function<K, Object> getter, BiConsumer<K, Object> putter) {
+        return new Cache<K>() {
+            @Override
+            public Object get(K key) {
+                return getter.apply(key);
+            }
+
+            @Override
+            public void put(K key, Object value) {
+                putter.accept(key, value);
+            }
+        };
+    }
+
+    /**
+     * Zipf(s) 分布的 key 序列，按 CDF 二分生成
+     */
+    static int[] zipfTrace(int keys, int length, double s, long seed) {
+        double[] cdf = new double[keys];
+        double sum = 0;
+        for (int i = 0; i < keys; i++) {
+            sum += 1.0 / Math.pow(i + 1, s);
+            cdf[i] = sum;
+        }
+        Random rnd = new Random(seed);
+        int[] trace = new int[length];
+        for (int i = 0; i < length; i++) {
+            int idx = Arrays.binarySearch(cdf, rnd.nextDouble() * sum);
+            trace[i] = idx >= 0 ? idx : -idx - 1;
+        }
+        return trace;
+    }
+
+    static Integer[] boxed(int[] trace) {
+        Integer[] keys = new Integer[trace.length];
+        for (int i = 0; i < trace.length; i++) keys[i] = trace[i];
+        return keys;
+    }
+
+    static <K> double hitRate(Cache<K> cache, K[] trace) {
+        long hits = 0;
+        for (K key : trace) {
+            if (cache.get(key) != null) {
+                hits++;
+            } else {
+                cache.put(key, key);
+            }
+        }
+        return (double) hits / trace.length;
+    }
+
+    static double readOpsPerSecond(Cache<Integer> cache, Integer[] trace, int threads, long durationMs) throws InterruptedException {
+        return ConcurrentBenchmark.opsPerSecond(threads, durationMs, (id, deadline) -> {
+            long n = 0;
+            int i = id * (trace.length / threads);
+            while (System.nanoTime() < deadline) {
+                for (int j = 0; j < 256; j++) {
+                    cache.get(trace[i]);
+                    if (++i == trace.length) i = 0;
+                }
+                n += 256;
+            }
+            return n;
+        });
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long measureMs = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+        Integer[] trace = boxed(zipfTrace(KEYS, 2_000_000, 0.9, 42));
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        System.out.printf("hit rate: capacity %,d, %,d keys, Zipf 0.9, %,d accesses%n", CAPACITY, KEYS, trace.length);
+        for (Map.Entry<String, Supplier<Cache<Integer>>> e : CACHES.entrySet()) {
+            System.out.printf("  %-24s %6.2f%%%n", e.getKey(), hitRate(e.getValue().get(), trace) * 100);
+        }
+
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int t = 1; t <= Math.max(2, cores * 2); t *= 2) threadCounts.add(t);
+        System.out.printf("%nread-only gets/s on a warm cache (%d cores)%n", cores);
+        System.out.printf("  %-24s", "threads");
+        for (int t : threadCounts) System.out.printf("%14d", t);
+        System.out.println();
+        // 基线：不做任何淘汰簿记的 ConcurrentHashMap.get，预先放最热的 CAPACITY 个 key（不用 trace 预热，否则会装下所有 key）
+        Map<String, Supplier<Cache<Integer>>> withBaseline = new LinkedHashMap<>();
+        withBaseline.put("ConcurrentHashMap", () -> {
+            ConcurrentHashMap<Integer, Object> m = new ConcurrentHashMap<>();
+            for (int k = 0; k < CAPACITY; k++) m.put(k, k);
+            return wrap(m::get, m::put);
+        });
+        withBaseline.putAll(CACHES);
+        for (Map.Entry<String, Supplier<Cache<Integer>>> e : withBaseline.entrySet()) {
+            Cache<Integer> cache = e.getValue().get();
+            if (CACHES.containsKey(e.getKey())) {
+                hitRate(cache, trace);
+            }
+            System.out.printf("  %-24s", e.getKey());
+            for (int t : threadCounts) {
+                readOpsPerSecond(cache, trace, t, measureMs / 4);
+                System.out.printf("%,14.0f", readOpsPerSecond(cache, trace, t, measureMs));
+            }
+            System.out.println();
+        }
+    }
+}
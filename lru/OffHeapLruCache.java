@@ -0,0 +1,514 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+/**
+ * 把 value 放在堆外的 LRU 缓存，给大量 byte[] 大对象用：数据不在堆上，GC 不用扫、不用搬。
+ *
+ * 存储：堆外内存按 slabSize 切成 slab（ByteBuffer.allocateDirect，用到才分配，总量不超过 maxBytes）。
+ * 和 memcached 一样按大小分级：每级的 chunk 大小是上一级的 1.25 倍，一个 slab 只属于一级，切成等长的 chunk，
+ * 一个条目占一个 chunk：[hash][keyLen][valueLen][key][value]。
+ *
+ * 索引：堆上只有一张开放寻址（线性探测）的表，用并行数组存 hash、位置（slab 下标 + 偏移）、value 长度、CLOCK 的访问位，
+ * 一个条目十几个字节、没有对象，条目再多 GC 也没负担。
+ *
+ * 淘汰：CLOCK，每级一根指针在本级的 chunk 上转，访问位是 1 的清掉给第二次机会，是 0 的淘汰。
+ * 某一级一个 slab 都没有、又没有空闲 slab 时，从 slab 最多的那一级收回一个 slab（里面的条目全部淘汰）。
+ *
+ * 并发：一把读写锁。get 只拿读锁，访问位直接写（多个读线程写同一个值，不需要同步）；put / remove / 淘汰拿写锁。
+ * 读有两种：get(key, reader) 在读锁内把指向缓存内存的只读视图交给 reader，命中不拷贝；
+ * get(key) 拷贝一份 byte[] 返回。chunk 会被原地覆盖、被淘汰后给别的 key 复用，
+ * 所以视图不能带出读锁，这也是不直接返回视图的原因。
+ */
+public class OffHeapLruCache {
+
+    private static final int HEADER = 12;
+    private static final int MIN_CHUNK = 64;
+    private static final double GROWTH_FACTOR = 1.25;
+    private static final long EMPTY = -1L;
+    private static final int FREE = -1;
+
+    // 一个大小级别：拥有哪些 slab、空闲的 chunk、CLOCK 指针
+    private static final class SizeClass {
+        final int chunkSize;
+        final int chunksPerSlab;
+        int[] slabs = new int[4];
+        int slabCount;
+        long[] free = new long[16];
+        int freeCount;
+        int handSlab;
+        int handChunk;
+
+        SizeClass(int chunkSize, int slabSize) {
+            this.chunkSize = chunkSize;
+            this.chunksPerSlab = slabSize / chunkSize;
+        }
+    }
+
+    private final int slabSize;
+    private final ByteBuffer[] slabs;
+    // 每个 slab 的只读视图，get 从这里 slice，一次命中只分配一个 ByteBuffer 对象
+    private final ByteBuffer[] readOnlySlabs;
+    private final int[] slabClass;
+    // 每个 slab 已经切出去的 chunk 数，之后的还没用过
+    private final int[] slabUsed;
+    private int allocatedSlabs;
+    private final SizeClass[] classes;
+
+    // 索引：并行数组，下标是槽位
+    private int[] hashes;
+    private long[] locations;
+    private int[] lengths;
+    private byte[] referenced;
+    private int mask;
+    private int size;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public OffHeapLruCache(long maxBytes) {
+        this(maxBytes, 4 << 20);
+    }
+
+    /**
+     * @param maxBytes 堆外内存上限，按 slab 分配，最多 maxBytes / slabSize 个 slab
+     * @param slabSize 一个 slab 的字节数，也是单个条目（key + value + 12 字节头）的上限
+     */
+    public OffHeapLruCache(long maxBytes, int slabSize) {
+        if (slabSize < 1024) {
+            throw new IllegalArgumentException("slabSize must be >= 1024");
+        }
+        if (maxBytes < slabSize || maxBytes / slabSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("maxBytes must be between slabSize and slabSize * Integer.MAX_VALUE");
+        }
+        this.slabSize = slabSize;
+        int maxSlabs = (int) (maxBytes / slabSize);
+        this.slabs = new ByteBuffer[maxSlabs];
+        this.readOnlySlabs = new ByteBuffer[maxSlabs];
+        this.slabClass = new int[maxSlabs];
+        this.slabUsed = new int[maxSlabs];
+        this.classes = sizeClasses(slabSize);
+        resize(16);
+    }
+
+    private static SizeClass[] sizeClasses(int slabSize) {
+        SizeClass[] result = new SizeClass[64];
+        int n = 0;
+        int chunk = MIN_CHUNK;
+        while (chunk < slabSize / 2) {
+            result[n++] = new SizeClass(chunk, slabSize);
+            chunk = Math.max(chunk + 8, (int) (chunk * GROWTH_FACTOR) + 7 & ~7);
+            if (n == result.length) result = Arrays.copyOf(result, n * 2);
+        }
+        // 最后一级一个 chunk 就是整个 slab
+        result[n++] = new SizeClass(slabSize, slabSize);
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * 命中时返回 value 的一份拷贝，未命中返回 null
+     */
+    public byte[] get(byte[] key) {
+        lock.readLock().lock();
+        try {
+            ByteBuffer view = view(key);
+            if (view == null) {
+                return null;
+            }
+            byte[] value = new byte[view.remaining()];
+            view.get(value);
+            return value;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 零拷贝读：在读锁内把 value 的只读视图（position = 0，limit = 长度）交给 reader，未命中时 reader 收到 null。
+     * reader 返回前内容不会被改；视图指向缓存自己的内存，不能在 reader 之外保留
+     */
+    public <R> R get(byte[] key, Function<ByteBuffer, R> reader) {
+        lock.readLock().lock();
+        try {
+            return reader.apply(view(key));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 只在持有读锁时调用
+    private ByteBuffer view(byte[] key) {
+        int slot = find(key, hash(key));
+        if (slot < 0) {
+            return null;
+        }
+        referenced[slot] = 1;
+        long location = locations[slot];
+        int offset = offset(location) + HEADER + key.length;
+        return readOnlySlabs[slab(location)].slice(offset, lengths[slot]);
+    }
+
+    public void put(byte[] key, byte[] value) {
+        int need = HEADER + key.length + value.length;
+        if (need > slabSize) {
+            throw new IllegalArgumentException("entry of " + need + " bytes does not fit in a slab of " + slabSize);
+        }
+        int hash = hash(key);
+        int cls = classFor(need);
+        lock.writeLock().lock();
+        try {
+            int slot = find(key, hash);
+            if (slot >= 0) {
+                long location = locations[slot];
+                if (slabClass[slab(location)] == cls) {
+                    // 还在同一级：原地覆盖
+                    ByteBuffer buffer = slabs[slab(location)];
+                    int offset = offset(location);
+                    buffer.putInt(offset + 8, value.length);
+                    buffer.put(offset + HEADER + key.length, value);
+                    lengths[slot] = value.length;
+                    referenced[slot] = 1;
+                    return;
+                }
+                removeSlot(slot);
+                release(location);
+            }
+            long location = allocate(cls);
+            ByteBuffer buffer = slabs[slab(location)];
+            int offset = offset(location);
+            buffer.putInt(offset, hash);
+            buffer.putInt(offset + 4, key.length);
+            buffer.putInt(offset + 8, value.length);
+            buffer.put(offset + HEADER, key);
+            buffer.put(offset + HEADER + key.length, value);
+            insert(hash, location, value.length);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(byte[] key) {
+        lock.writeLock().lock();
+        try {
+            int slot = find(key, hash(key));
+            if (slot < 0) {
+                return false;
+            }
+            long location = locations[slot];
+            removeSlot(slot);
+            release(location);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** 已经分配的堆外内存（字节） */
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) allocatedSlabs * slabSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** 索引占的堆内存（字节，不含对象头） */
+    public long indexBytes() {
+        lock.readLock().lock();
+        try {
+            return (long) hashes.length * (4 + 8 + 4 + 1);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // ---------- 分配和淘汰，都在写锁内 ----------
+
+    private long allocate(int cls) {
+        SizeClass c = classes[cls];
+        if (c.freeCount > 0) {
+            return c.free[--c.freeCount];
+        }
+        if (c.slabCount > 0) {
+            int last = c.slabs[c.slabCount - 1];
+            if (slabUsed[last] < c.chunksPerSlab) {
+                return location(last, slabUsed[last]++ * c.chunkSize);
+            }
+        }
+        if (allocatedSlabs < slabs.length) {
+            int slab = allocatedSlabs++;
+            slabs[slab] = ByteBuffer.allocateDirect(slabSize);
+            readOnlySlabs[slab] = slabs[slab].asReadOnlyBuffer();
+            assign(slab, cls);
+            return location(slab, slabUsed[slab]++ * c.chunkSize);
+        }
+        if (c.slabCount > 0) {
+            return clockEvict(c);
+        }
+        int slab = reclaimSlab(cls);
+        assign(slab, cls);
+        return location(slab, slabUsed[slab]++ * c.chunkSize);
+    }
+
+    // CLOCK：指针在本级所有用过的 chunk 上转，访问位是 1 的清零跳过，遇到 0 的就淘汰并复用它的 chunk。
+    // 只在本级没有空闲 chunk 时调用，所以转到的 chunk 都有条目；最多转两圈
+    private long clockEvict(SizeClass c) {
+        while (true) {
+            if (c.handSlab >= c.slabCount) {
+                c.handSlab = 0;
+                c.handChunk = 0;
+            }
+            int slab = c.slabs[c.handSlab];
+            if (c.handChunk >= slabUsed[slab]) {
+                c.handSlab++;
+                c.handChunk = 0;
+                continue;
+            }
+            long location = location(slab, c.handChunk++ * c.chunkSize);
+            int offset = offset(location);
+            if (slabs[slab].getInt(offset + 4) == FREE) {
+                continue;
+            }
+            int slot = slotOf(slabs[slab].getInt(offset), location);
+            if (referenced[slot] != 0) {
+                referenced[slot] = 0;
+                continue;
+            }
+            removeSlot(slot);
+            return location;
+        }
+    }
+
+    // 从 slab 最多的那一级收回它最后一个 slab，里面的条目全部淘汰
+    private int reclaimSlab(int forClass) {
+        SizeClass victim = null;
+        for (int i = 0; i < classes.length; i++) {
+            if (i != forClass && (victim == null || classes[i].slabCount > victim.slabCount)) {
+                victim = classes[i];
+            }
+        }
+        int slab = victim.slabs[--victim.slabCount];
+        ByteBuffer buffer = slabs[slab];
+        for (int chunk = 0; chunk < slabUsed[slab]; chunk++) {
+            int offset = chunk * victim.chunkSize;
+            if (buffer.getInt(offset + 4) != FREE) {
+                removeSlot(slotOf(buffer.getInt(offset), location(slab, offset)));
+            }
+        }
+        // 空闲列表里属于这个 slab 的也要拿掉
+        int kept = 0;
+        for (int i = 0; i < victim.freeCount; i++) {
+            if (slab(victim.free[i]) != slab) {
+                victim.free[kept++] = victim.free[i];
+            }
+        }
+        victim.freeCount = kept;
+        return slab;
+    }
+
+    private void assign(int slab, int cls) {
+        SizeClass c = classes[cls];
+        if (c.slabCount == c.slabs.length) {
+            c.slabs = Arrays.copyOf(c.slabs, c.slabCount * 2);
+        }
+        c.slabs[c.slabCount++] = slab;
+        slabClass[slab] = cls;
+        slabUsed[slab] = 0;
+    }
+
+    private void release(long location) {
+        SizeClass c = classes[slabClass[slab(location)]];
+        slabs[slab(location)].putInt(offset(location) + 4, FREE);
+        if (c.freeCount == c.free.length) {
+            c.free = Arrays.copyOf(c.free, c.freeCount * 2);
+        }
+        c.free[c.freeCount++] = location;
+    }
+
+    private int classFor(int need) {
+        int lo = 0;
+        int hi = classes.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (classes[mid].chunkSize >= need) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    // ---------- 索引：线性探测，删除用 backward shift，没有墓碑 ----------
+
+    private int find(byte[] key, int hash) {
+        for (int i = hash & mask; locations[i] != EMPTY; i = (i + 1) & mask) {
+            if (hashes[i] == hash && keyEquals(locations[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // 淘汰时从 chunk 找回槽位：chunk 头里存了 hash，按位置比较，不用读 key
+    private int slotOf(int hash, long location) {
+        int i = hash & mask;
+        while (locations[i] != location) {
+            i = (i + 1) & mask;
+        }
+        return i;
+    }
+
+    private void insert(int hash, long location, int length) {
+        if (size + 1 > (mask + 1) * 3 / 4) {
+            resize((mask + 1) * 2);
+        }
+        int i = hash & mask;
+        while (locations[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        hashes[i] = hash;
+        locations[i] = location;
+        lengths[i] = length;
+        referenced[i] = 0;
+        size++;
+    }
+
+    private void removeSlot(int slot) {
+        int hole = slot;
+        int i = slot;
+        while (true) {
+            i = (i + 1) & mask;
+            if (locations[i] == EMPTY) {
+                break;
+            }
+            // i 的理想位置不在 (hole, i] 之间，才能挪到 hole 上
+            int home = hashes[i] & mask;
+            boolean between = hole <= i ? hole < home && home <= i : hole < home || home <= i;
+            if (!between) {
+                hashes[hole] = hashes[i];
+                locations[hole] = locations[i];
+                lengths[hole] = lengths[i];
+                referenced[hole] = referenced[i];
+                hole = i;
+            }
+        }
+        locations[hole] = EMPTY;
+        size--;
+    }
+
+    private void resize(int capacity) {
+        int[] oldHashes = hashes;
+        long[] oldLocations = locations;
+        int[] oldLengths = lengths;
+        byte[] oldReferenced = referenced;
+        hashes = new int[capacity];
+        locations = new long[capacity];
+        lengths = new int[capacity];
+        referenced = new byte[capacity];
+        Arrays.fill(locations, EMPTY);
+        mask = capacity - 1;
+        if (oldLocations == null) {
+            return;
+        }
+        for (int j = 0; j < oldLocations.length; j++) {
+            if (oldLocations[j] != EMPTY) {
+                int i = oldHashes[j] & mask;
+                while (locations[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                hashes[i] = oldHashes[j];
+                locations[i] = oldLocations[j];
+                lengths[i] = oldLengths[j];
+                referenced[i] = oldReferenced[j];
+            }
+        }
+    }
+
+    private boolean keyEquals(long location, byte[] key) {
+        ByteBuffer buffer = slabs[slab(location)];
+        int offset = offset(location);
+        if (buffer.getInt(offset + 4) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer.get(offset + HEADER + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] key) {
+        int h = Arrays.hashCode(key) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static long location(int slab, int offset) {
+        return (long) slab << 32 | offset;
+    }
+
+    private static int slab(long location) {
+        return (int) (location >>> 32);
+    }
+
+    private static int offset(long location) {
+        return (int) location;
+    }
+
+    @Override
+    public String toString() {
+        lock.readLock().lock();
+        try {
+            return "OffHeapLruCache{size=" + size + ", slabs=" + allocatedSlabs + "/" + slabs.length
+                    + ", offHeap=" + ((long) allocatedSlabs * slabSize >> 20) + "MB"
+                    + ", index=" + (hashes.length * 17L >> 10) + "KB}";
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static void main(String[] args) {
+        OffHeapLruCache cache = new OffHeapLruCache(64 << 20, 1 << 20);
+        byte[] hotKey = "hot".getBytes(StandardCharsets.UTF_8);
+        byte[] hotValue = new byte[16_000];
+        Arrays.fill(hotValue, (byte) 7);
+        cache.put(hotKey, hotValue);
+        System.out.println("hot: " + cache.get(hotKey, view -> view.remaining() + " bytes, direct=" + view.isDirect()
+                + ", readOnly=" + view.isReadOnly() + ", first byte=" + view.get(0)));
+
+        // 写进去大约 320MB（1KB ~ 64KB 的 blob），是容量的 5 倍；期间一直在读 hot，CLOCK 会留住它
+        java.util.Random random = new java.util.Random(1);
+        long written = 0;
+        int n = 10_000;
+        for (int i = 0; i < n; i++) {
+            byte[] value = new byte[1024 + random.nextInt(63 * 1024)];
+            value[0] = (byte) i;
+            cache.put(("blob" + i).getBytes(StandardCharsets.UTF_8), value);
+            written += value.length;
+            if (i % 100 == 0 && cache.get(hotKey) == null) {
+                System.out.println("hot evicted at " + i);
+            }
+        }
+        int recent = 0;
+        for (int i = n - 100; i < n; i++) {
+            byte[] b = cache.get(("blob" + i).getBytes(StandardCharsets.UTF_8));
+            if (b != null && b[0] == (byte) i) recent++;
+        }
+        System.out.println("wrote " + (written >> 20) + "MB, " + cache);
+        System.out.println("hot still cached: " + (cache.get(hotKey) != null) + ", last 100 blobs cached: " + recent);
+        System.out.println("sum of hot bytes inside the read lock: "
+                + cache.get(hotKey, b -> { long s = 0; while (b.hasRemaining()) s += b.get(); return s; }));
+    }
+}
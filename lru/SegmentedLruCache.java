@@ -0,0 +1,214 @@
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 分段版的 ConcurrentLruCache：按 key 的 hash 分到 N 个段，每段自己一把锁、一条双向链表、一份容量，
+ * 不同段的 get / put 互不阻塞。key -> node 的索引是一个共享的 ConcurrentHashMap，查找本身不加锁。
+ *
+ * 两种模式：
+ * - strict：命中时拿段锁把 node 挪到段链表头，段内是精确 LRU
+ * - approximate：命中时只把 node.referenced 置 true（已经是 true 就不写），完全不拿锁；
+ *   淘汰时从段尾往前找，referenced 的给第二次机会（清标记、挪回头部），相当于在 LRU 链表上跑 CLOCK
+ *
+ * 淘汰是按段做的：capacity 平均分给各段（除不尽的零头给前几个段各多 1 个），加起来正好是 capacity，
+ * 热点集中在少数段时整体命中率会比全局 LRU 略低。
+ */
+public class SegmentedLruCache<K, V> {
+
+    private final ConcurrentHashMap<K, Node<K, V>> map = new ConcurrentHashMap<>();
+    private final Segment<K, V>[] segments;
+    private final int segmentShift;
+    private final boolean approximate;
+
+    private static class Node<K, V> {
+        final K key;
+        volatile V value;
+        // 只在 approximate 模式下用：最近被访问过
+        volatile boolean referenced;
+        // prev / next 只在持有所在段的锁时读写
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final class Segment<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        final int capacity;
+        // 哨兵节点，永远不存真实数据，简化链表操作
+        final Node<K, V> head = new Node<>(null, null);
+        final Node<K, V> tail = new Node<>(null, null);
+        int size;
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+            head.next = tail;
+            tail.prev = head;
+        }
+    }
+
+    public SegmentedLruCache(int capacity) {
+        this(capacity, 16, false);
+    }
+
+    /**
+     * @param segments    段数，向上取到 2 的幂，但不超过 capacity
+     * @param approximate true 时 get 不拿锁，用 referenced 标记 + 第二次机会近似 LRU
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public SegmentedLruCache(int capacity, int segments, boolean approximate) {
+        if (capacity <= 0 || segments <= 0) {
+            throw new IllegalArgumentException("capacity and segments must be > 0");
+        }
+        int n = 1;
+        while (n < segments && (long) n * 2 <= capacity) n <<= 1;
+        this.segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            this.segments[i] = new Segment<>(capacity / n + (i < capacity % n ? 1 : 0));
+        }
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(n);
+        this.approximate = approximate;
+    }
+
+    // 用 hash 的高位选段，ConcurrentHashMap 用低位选桶，两边不相关
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments.length == 1 ? segments[0] : segments[h >>> segmentShift];
+    }
+
+    public V get(K key) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (approximate) {
+            if (!node.referenced) {
+                node.referenced = true;
+            }
+            return node.value;
+        }
+        Segment<K, V> seg = segmentFor(key);
+        seg.lock.lock();
+        try {
+            // 可能刚被别的线程淘汰了：prev == null 表示已经不在链表里
+            if (node.prev != null) {
+                moveToHead(seg, node);
+            }
+        } finally {
+            seg.lock.unlock();
+        }
+        return node.value;
+    }
+
+    public void put(K key, V value) {
+        Segment<K, V> seg = segmentFor(key);
+        seg.lock.lock();
+        try {
+            Node<K, V> node = map.get(key);
+            if (node != null) {
+                // key 已存在：更新 value，移动到头
+                node.value = value;
+                moveToHead(seg, node);
+                return;
+            }
+            Node<K, V> newNode = new Node<>(key, value);
+            addToHead(seg, newNode);
+            map.put(key, newNode);
+            seg.size++;
+            if (seg.size > seg.capacity) {
+                evict(seg);
+            }
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    public V remove(K key) {
+        Segment<K, V> seg = segmentFor(key);
+        seg.lock.lock();
+        try {
+            Node<K, V> node = map.remove(key);
+            if (node == null) {
+                return null;
+            }
+            removeNode(node);
+            seg.size--;
+            return node.value;
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    public int size() {
+        // 和 ConcurrentLruCache 一样是近似值
+        return map.size();
+    }
+
+    // ==== 以下都只在持有 seg.lock 时调用 ====
+
+    private void evict(Segment<K, V> seg) {
+        Node<K, V> victim = seg.tail.prev;
+        if (approximate) {
+            // 最多绕一圈：全都被访问过的话，清完标记之后最早的那个又回到了尾部
+            for (int i = 0; i < seg.size && victim.referenced; i++) {
+                victim.referenced = false;
+                moveToHead(seg, victim);
+                victim = seg.tail.prev;
+            }
+        }
+        if (victim != seg.head) {
+            removeNode(victim);
+            map.remove(victim.key, victim);
+            seg.size--;
+        }
+    }
+
+    private static <K, V> void moveToHead(Segment<K, V> seg, Node<K, V> node) {
+        removeNode(node);
+        addToHead(seg, node);
+    }
+
+    private static <K, V> void addToHead(Segment<K, V> seg, Node<K, V> node) {
+        node.next = seg.head.next;
+        node.prev = seg.head;
+        seg.head.next.prev = node;
+        seg.head.next = node;
+    }
+
+    private static <K, V> void removeNode(Node<K, V> node) {
+        Node<K, V> p = node.prev;
+        Node<K, V> n = node.next;
+        if (p != null) {
+            p.next = n;
+        }
+        if (n != null) {
+            n.prev = p;
+        }
+        node.prev = null;
+        node.next = null;
+    }
+
+    public static void main(String[] args) {
+        // 单段 + strict 就是普通 LRU
+        SegmentedLruCache<String, Integer> lru = new SegmentedLruCache<>(3, 1, false);
+        lru.put("a", 1);
+        lru.put("b", 2);
+        lru.put("c", 3);
+        lru.get("a");
+        lru.put("d", 4);
+        System.out.println("strict: a=" + lru.get("a") + " b=" + lru.get("b") + " c=" + lru.get("c") + " d=" + lru.get("d"));
+
+        // approximate：a 被访问过，淘汰时给第二次机会，淘汰的是 b
+        SegmentedLruCache<String, Integer> approx = new SegmentedLruCache<>(3, 1, true);
+        approx.put("a", 1);
+        approx.put("b", 2);
+        approx.put("c", 3);
+        approx.get("a");
+        approx.put("d", 4);
+        System.out.println("approximate: a=" + approx.get("a") + " b=" + approx.get("b") + " c=" + approx.get("c") + " d=" + approx.get("d"));
+        System.out.println("throughput / hit rate comparison: java LruCacheBenchmark");
+    }
+}
@@ -0,0 +1,135 @@
+import java.util.function.Consumer;
+
+/**
+ * 分层时间轮，给 ConcurrentLruCache 的过期用（思路同 Kafka / Caffeine 的 hierarchical timing wheel）。
+ *
+ * 5 层，每层 64 个桶，桶宽分别是 2^20 ns（约 1ms）、2^26（约 67ms）、2^32（约 4.3s）、2^38（约 4.6min）、2^44（约 4.9h）；
+ * 一层转一圈正好是下一层的一个桶宽。定时器按“离现在还有多久”放进能装下它的最细的那一层，
+ * 时间推进时粗层的桶到期就把里面的定时器往细层挪（级联），每个定时器最多挪 5 次，所以均摊 O(1)；
+ * 到期的交给回调。超过最粗一层范围（约 13 天）的先放在最粗层，轮到的时候再重新放。
+ *
+ * 定时器是侵入式的双向链表节点，加入 / 删除 O(1)。不是线程安全的，由调用方加锁。
+ * 时间由调用方传入（单调递增的纳秒数），方便测试和复用 System.nanoTime 的读数。
+ */
+final class TimerWheel {
+
+    /**
+     * 被调度的对象；deadline() 可以随时变（比如访问后过期时间往后推），
+     * 到了桶的时间会重新检查，没到期就重新放
+     */
+    abstract static class Timer {
+        Timer prevInWheel;
+        Timer nextInWheel;
+
+        abstract long deadline();
+    }
+
+    private static final int BUCKETS = 64;
+    private static final int[] SHIFTS = {20, 26, 32, 38, 44};
+
+    // 每个桶一个哨兵节点，链表成环
+    private final Timer[][] wheel = new Timer[SHIFTS.length][BUCKETS];
+    private long nanos;
+
+    TimerWheel(long nowNanos) {
+        this.nanos = nowNanos;
+        for (Timer[] level : wheel) {
+            for (int i = 0; i < BUCKETS; i++) {
+                level[i] = newSentinel();
+            }
+        }
+    }
+
+    private static Timer newSentinel() {
+        Timer sentinel = new Timer() {
+            @Override
+            long deadline() {
+                return Long.MAX_VALUE;
+            }
+        };
+        sentinel.prevInWheel = sentinel;
+        sentinel.nextInWheel = sentinel;
+        return sentinel;
+    }
+
+    void schedule(Timer timer) {
+        Timer sentinel = bucketFor(timer.deadline());
+        timer.prevInWheel = sentinel.prevInWheel;
+        timer.nextInWheel = sentinel;
+        sentinel.prevInWheel.nextInWheel = timer;
+        sentinel.prevInWheel = timer;
+    }
+
+    void reschedule(Timer timer) {
+        deschedule(timer);
+        schedule(timer);
+    }
+
+    void deschedule(Timer timer) {
+        if (timer.nextInWheel != null) {
+            timer.prevInWheel.nextInWheel = timer.nextInWheel;
+            timer.nextInWheel.prevInWheel = timer.prevInWheel;
+            timer.prevInWheel = null;
+            timer.nextInWheel = null;
+        }
+    }
+
+    /**
+     * 把时间推进到 nowNanos，所有 deadline <= nowNanos 的定时器摘下来交给 onExpired
+     */
+    void advance(long nowNanos, Consumer<Timer> onExpired) {
+        long previous = nanos;
+        if (nowNanos - previous <= 0) {
+            return;
+        }
+        nanos = nowNanos;
+        for (int level = 0; level < SHIFTS.length; level++) {
+            long previousTicks = previous >>> SHIFTS[level];
+            long currentTicks = nowNanos >>> SHIFTS[level];
+            if (currentTicks - previousTicks <= 0) {
+                // 这一层没跨过桶边界，更粗的层也不会跨
+                break;
+            }
+            expire(level, previousTicks, currentTicks, onExpired);
+        }
+    }
+
+    // 处理 [previousTicks, currentTicks] 这些桶（最多一圈）：到期的回调，没到期的按剩余时间重新放（级联到细层）
+    private void expire(int level, long previousTicks, long currentTicks, Consumer<Timer> onExpired) {
+        Timer[] buckets = wheel[level];
+        long count = Math.min(currentTicks - previousTicks + 1, BUCKETS);
+        for (long t = 0; t < count; t++) {
+            Timer sentinel = buckets[(int) ((previousTicks + t) & (BUCKETS - 1))];
+            // 先把整个桶摘下来，重新放回同一个桶的定时器不会在这一轮被再处理一次
+            Timer node = sentinel.nextInWheel;
+            sentinel.prevInWheel = sentinel;
+            sentinel.nextInWheel = sentinel;
+            while (node != sentinel) {
+                Timer next = node.nextInWheel;
+                node.prevInWheel = null;
+                node.nextInWheel = null;
+                if (node.deadline() - nanos <= 0) {
+                    onExpired.accept(node);
+                } else {
+                    schedule(node);
+                }
+                node = next;
+            }
+        }
+    }
+
+    private Timer bucketFor(long deadline) {
+        long delay = Math.max(0, deadline - nanos);
+        int last = SHIFTS.length - 1;
+        for (int level = 0; level < last; level++) {
+            // 一层转一圈 = 下一层的一个桶宽
+            if (delay < (1L << SHIFTS[level + 1])) {
+                return wheel[level][(int) ((deadline >>> SHIFTS[level]) & (BUCKETS - 1))];
+            }
+        }
+        // 最粗一层也放不下的，先按一圈之内最远的位置放，轮到时会重新计算
+        long maxDelay = (1L << SHIFTS[last]) * BUCKETS - 1;
+        long clamped = delay > maxDelay ? nanos + maxDelay : deadline;
+        return wheel[last][(int) ((clamped >>> SHIFTS[last]) & (BUCKETS - 1))];
+    }
+}
@@ -0,0 +1,212 @@
+import java.util.*;
+
+/**
+ * W-TinyLFU：一次性扫描（one-hit wonder）不会把热数据冲掉的缓存。
+ *
+ * - window：约 1% 容量的小 LRU，新 key 都先进这里，给突发的新热点一点时间攒频率
+ * - main：分段 LRU，probation（约 20%）+ protected（约 80%）。probation 里再命中一次就升到 protected，
+ *   protected 满了把它的 LRU 降回 probation
+ * - 准入：window 挤出来的 candidate 进 probation；整体超过容量时，拿 candidate 和 probation 的 LRU（victim）
+ *   比 FrequencySketch 估计的频率，candidate 更高才留下，否则淘汰 candidate 本身
+ *
+ * 和 LruCacheSimple 一样整个对象一把锁（synchronized）。
+ */
+public class WTinyLfuCache<K, V> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final class Node<K, V> {
+        final K key;
+        V value;
+        int queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    // 带哨兵的双向链表：head.next 是最久未使用的，新访问的挂到 tail 前面
+    private static final class AccessQueue<K, V> {
+        final Node<K, V> head = new Node<>(null, null);
+        final Node<K, V> tail = new Node<>(null, null);
+        int size;
+
+        AccessQueue() {
+            head.next = tail;
+            tail.prev = head;
+        }
+
+        Node<K, V> first() {
+            return head.next == tail ? null : head.next;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = tail.prev;
+            node.next = tail;
+            tail.prev.next = node;
+            tail.prev = node;
+            size++;
+        }
+
+        void remove(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            remove(node);
+            addLast(node);
+        }
+    }
+
+    private final int capacity;
+    private final int windowMax;
+    private final int protectedMax;
+    private final HashMap<K, Node<K, V>> data = new HashMap<>();
+    private final AccessQueue<K, V> window = new AccessQueue<>();
+    private final AccessQueue<K, V> probation = new AccessQueue<>();
+    private final AccessQueue<K, V> protectedQueue = new AccessQueue<>();
+    private final FrequencySketch sketch;
+
+    public WTinyLfuCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        this.capacity = capacity;
+        this.windowMax = Math.max(1, capacity / 100);
+        this.protectedMax = (capacity - windowMax) * 8 / 10;
+        this.sketch = new FrequencySketch(capacity);
+    }
+
+    public synchronized V get(K key) {
+        sketch.increment(key);
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            return null;
+        }
+        onHit(node);
+        return node.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        sketch.increment(key);
+        Node<K, V> node = data.get(key);
+        if (node != null) {
+            node.value = value;
+            onHit(node);
+            return;
+        }
+        node = new Node<>(key, value);
+        node.queue = WINDOW;
+        window.addLast(node);
+        data.put(key, node);
+        evict();
+    }
+
+    public synchronized int size() {
+        return data.size();
+    }
+
+    public synchronized boolean containsKey(K key) {
+        return data.containsKey(key);
+    }
+
+    private void onHit(Node<K, V> node) {
+        if (node.queue == WINDOW) {
+            window.moveToLast(node);
+        } else if (node.queue == PROBATION) {
+            // probation 里再被访问：升到 protected
+            probation.remove(node);
+            node.queue = PROTECTED;
+            protectedQueue.addLast(node);
+            if (protectedQueue.size > protectedMax) {
+                Node<K, V> demoted = protectedQueue.first();
+                protectedQueue.remove(demoted);
+                demoted.queue = PROBATION;
+                probation.addLast(demoted);
+            }
+        } else {
+            protectedQueue.moveToLast(node);
+        }
+    }
+
+    private void evict() {
+        Node<K, V> candidate = null;
+        if (window.size > windowMax) {
+            candidate = window.first();
+            window.remove(candidate);
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+        }
+        while (data.size() > capacity) {
+            Node<K, V> victim = probation.first();
+            if (victim == null) {
+                victim = protectedQueue.first();
+            }
+            if (candidate != null && victim != candidate) {
+                // 准入过滤：新来的不比要被挤掉的那个更常用，就不让它进
+                if (sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                    victim = candidate;
+                }
+                candidate = null;
+            }
+            removeFromQueue(victim);
+            data.remove(victim.key);
+        }
+    }
+
+    private void removeFromQueue(Node<K, V> node) {
+        if (node.queue == WINDOW) {
+            window.remove(node);
+        } else if (node.queue == PROBATION) {
+            probation.remove(node);
+        } else {
+            protectedQueue.remove(node);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        appendQueue(sb, "window", window);
+        appendQueue(sb, " probation", probation);
+        appendQueue(sb, " protected", protectedQueue);
+        return sb.toString();
+    }
+
+    private static <K, V> void appendQueue(StringBuilder sb, String name, AccessQueue<K, V> queue) {
+        sb.append(name).append('[');
+        for (Node<K, V> n = queue.head.next; n != queue.tail; n = n.next) {
+            sb.append(n.key);
+            if (n.next != queue.tail) sb.append(',');
+        }
+        sb.append(']');
+    }
+
+    public static void main(String[] args) {
+        WTinyLfuCache<String, Integer> cache = new WTinyLfuCache<>(10);
+        // 热点 a..e 各访问几次
+        for (int round = 0; round < 5; round++) {
+            for (char c = 'a'; c <= 'e'; c++) {
+                String key = String.valueOf(c);
+                if (cache.get(key) == null) cache.put(key, round);
+            }
+        }
+        System.out.println("after hot keys: " + cache);
+        // 一次扫描 30 个只访问一次的 key：LRU 会被冲空，这里热点都还在
+        for (int i = 0; i < 30; i++) {
+            String key = "scan" + i;
+            if (cache.get(key) == null) cache.put(key, i);
+        }
+        System.out.println("after scan:     " + cache);
+        System.out.println("hit rate comparison on a trace: java CacheSimulator [traceFile] [capacity]");
+    }
+}
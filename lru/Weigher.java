@@ -0,0 +1,23 @@
+/**
+ * 计算一个缓存条目的权重，ConcurrentLruCache 按权重之和（而不是条目数）控制容量。
+ * 权重在写入时算一次，之后不再重算；必须 >= 0。
+ */
+@FunctionalInterface
+public interface Weigher<K, V> {
+
+    int weigh(K key, V value);
+
+    /** 每个条目权重都是 1，也就是按条目数限制 */
+    static <K, V> Weigher<K, V> singleton() {
+        return (key, value) -> 1;
+    }
+
+    /**
+     * 按 key + value 估算的堆占用（字节，含缓存自己的节点开销），配合 maximumWeight 可以按字节预算限制缓存。
+     * 只对常见类型准确，见 HeapSize
+     */
+    static <K, V> Weigher<K, V> retainedHeapSize() {
+        return (key, value) -> (int) Math.min(Integer.MAX_VALUE,
+                HeapSize.ENTRY_OVERHEAD + HeapSize.estimate(key) + HeapSize.estimate(value));
+    }
+}
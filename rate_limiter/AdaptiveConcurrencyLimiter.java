@@ -0,0 +1,213 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 根据观测到的延迟自动调整并发上限（思路类似 Netflix concurrency-limits 的 Gradient2）。
+ *
+ * 用法：tryAcquire() 拿到许可才发请求，请求结束调 onComplete(latencyNanos)，超时 / 被下游拒绝调 onDropped()。
+ *
+ * - in-flight 计数是一个 AtomicInteger，CAS 判断 inflight < limit，热路径无锁
+ * - 样本按窗口聚合：每收集到 limit 个（约一个 RTT 的量）才调整一次，
+ *   否则反馈还没回来 limit 就已经被改了很多次，会来回振荡
+ * - short RTT 是当前窗口的平均延迟；baseline RTT 是见过的最小窗口平均（无排队时的延迟），每个窗口缓慢上漂，
+ *   这样下游真的永久变慢时基线也能跟上。
+ * - 按 Little 定律，延迟从 baseline 涨到 short 说明大约有 queue = limit * (1 - baseline / short) 个请求在排队。
+ *   newLimit = limit - queue + queueSize = limit * gradient + queueSize，gradient = clamp(baseline / short, 0.5, 1)，
+ *   queueSize = sqrt(limit) 是允许的排队量：limit 收敛到“下游容量 + sqrt(limit)”附近，而不是容量的若干倍。
+ *   short 超过 tolerance * baseline（明显在排队）时不加 queueSize，只收缩，先把队列排空
+ * - onDropped() 是 AIMD 里的乘性减少
+ * 完成路径无锁：样本累加到 LongAdder 里，攒够一个窗口时由抢到 tryLock 的线程计算新 limit，其他线程不等。
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double rttTolerance;
+    private final double smoothing;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+    private volatile int limit;
+
+    // 当前窗口的样本，完成路径只做 LongAdder / LongAccumulator 的累加
+    private final LongAdder windowRttSum = new LongAdder();
+    private final LongAdder windowSamples = new LongAdder();
+    private final LongAccumulator windowMaxInflight = new LongAccumulator(Math::max, 0);
+    private volatile int windowSize;
+
+    // 以下只在持有 updateLock 时读写
+    private final ReentrantLock updateLock = new ReentrantLock();
+    private double estimatedLimit;
+    private double baselineRttNanos;
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit) {
+        this(initialLimit, minLimit, maxLimit, 1.5, 0.2);
+    }
+
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double rttTolerance, double smoothing) {
+        if (minLimit <= 0 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("require 0 < minLimit <= initialLimit <= maxLimit");
+        }
+        if (rttTolerance < 1.0 || smoothing <= 0 || smoothing > 1.0) {
+            throw new IllegalArgumentException("rttTolerance must be >= 1 and smoothing in (0, 1]");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.rttTolerance = rttTolerance;
+        this.smoothing = smoothing;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+        this.windowSize = Math.max(10, initialLimit);
+    }
+
+    /**
+     * 拿一个并发许可；拿到之后必须调用 onComplete 或 onDropped 之一
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            int cur = inflight.get();
+            if (cur >= limit) {
+                return false;
+            }
+            if (inflight.compareAndSet(cur, cur + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void onComplete(long latencyNanos) {
+        int inflightAtCompletion = inflight.getAndDecrement();
+        if (latencyNanos <= 0) {
+            return;
+        }
+        windowRttSum.add(latencyNanos);
+        windowMaxInflight.accumulate(inflightAtCompletion);
+        windowSamples.increment();
+        if (windowSamples.sum() >= windowSize && updateLock.tryLock()) {
+            try {
+                update();
+            } finally {
+                updateLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 请求超时或被下游拒绝：乘性减少
+     */
+    public void onDropped() {
+        inflight.decrementAndGet();
+        updateLock.lock();
+        try {
+            estimatedLimit = Math.max(minLimit, estimatedLimit * 0.9);
+            limit = (int) estimatedLimit;
+        } finally {
+            updateLock.unlock();
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInflight() {
+        return inflight.get();
+    }
+
+    // 只在持有 updateLock 时调用。sumThenReset 和并发的累加不是原子的：
+    // 正好在切换时完成的个别样本可能一半算进这个窗口、一半算进下一个，对平均值影响可以忽略
+    private void update() {
+        long samples = windowSamples.sum();
+        if (samples < windowSize) {
+            // 别的线程刚切换过窗口
+            return;
+        }
+        double shortRttNanos = (double) windowRttSum.sumThenReset() / samples;
+        windowSamples.add(-samples);
+        long maxInflight = windowMaxInflight.getThenReset();
+
+        // 每个窗口上漂 0.01%：几千个窗口之后旧的最小值才失效，既不会被排队延迟带着走，下游永久变慢时也能慢慢跟上
+        baselineRttNanos = baselineRttNanos == 0 ? shortRttNanos : Math.min(baselineRttNanos * 1.0001, shortRttNanos);
+        // 实际并发远低于上限时，延迟说明不了上限够不够，不调整（避免空闲时 limit 无限上涨）
+        if (maxInflight < estimatedLimit / 2) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, baselineRttNanos / shortRttNanos));
+        double queueSize = shortRttNanos > rttTolerance * baselineRttNanos ? 0 : Math.sqrt(estimatedLimit);
+        double newLimit = estimatedLimit * gradient + queueSize;
+        newLimit = estimatedLimit * (1 - smoothing) + newLimit * smoothing;
+        estimatedLimit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+        limit = (int) estimatedLimit;
+        windowSize = Math.max(10, limit);
+    }
+
+    // ==== 回放延迟 trace 的离散事件模拟 ====
+
+    /**
+     * 下游模型：有 capacity 个“工人”，并发超过 capacity 之后按比例排队，
+     * latency = baseline * max(1, inflight / capacity)。baseline 来自 trace。
+     */
+    static void simulate(AdaptiveConcurrencyLimiter limiter, double[] baselineMs, int capacityBefore, int capacityAfter,
+                         long arrivalIntervalMicros, long reportEveryMs) {
+        PriorityQueue<long[]> completions = new PriorityQueue<>(Comparator.comparingLong(e -> e[0]));
+        long now = 0;
+        long arrivalNanos = TimeUnit.MICROSECONDS.toNanos(arrivalIntervalMicros);
+        long nextReport = TimeUnit.MILLISECONDS.toNanos(reportEveryMs);
+        long admitted = 0, rejected = 0, latencySum = 0, completed = 0;
+        int inflight = 0;
+        for (int i = 0; i < baselineMs.length; i++) {
+            now += arrivalNanos;
+            while (!completions.isEmpty() && completions.peek()[0] <= now) {
+                long[] c = completions.poll();
+                inflight--;
+                limiter.onComplete(c[1]);
+                latencySum += c[1];
+                completed++;
+            }
+            int capacity = i < baselineMs.length / 2 ? capacityBefore : capacityAfter;
+            if (limiter.tryAcquire()) {
+                inflight++;
+                admitted++;
+                double factor = Math.max(1.0, (double) inflight / capacity);
+                long latency = (long) (baselineMs[i] * factor * 1_000_000);
+                completions.add(new long[]{now + latency, latency});
+            } else {
+                rejected++;
+            }
+            if (now >= nextReport) {
+                System.out.printf("t=%5dms capacity=%3d limit=%3d inflight=%3d admitted=%5d rejected=%5d avgLatency=%6.2fms%n",
+                        TimeUnit.NANOSECONDS.toMillis(now), capacity, limiter.getLimit(), inflight, admitted, rejected,
+                        completed == 0 ? 0.0 : latencySum / 1e6 / completed);
+                admitted = rejected = latencySum = completed = 0;
+                nextReport += TimeUnit.MILLISECONDS.toNanos(reportEveryMs);
+            }
+        }
+    }
+
+    /**
+     * java AdaptiveConcurrencyLimiter [trace 文件，每行一个 baseline 延迟(ms)]
+     * 不给文件就生成一个 10ms 左右、带长尾的 trace；跑到一半下游容量从 40 掉到 15（模拟一次坏的部署）。
+     */
+    public static void main(String[] args) throws IOException {
+        double[] trace;
+        if (args.length > 0) {
+            List<String> lines = Files.readAllLines(Paths.get(args[0]));
+            trace = lines.stream().map(String::trim).filter(s -> !s.isEmpty()).mapToDouble(Double::parseDouble).toArray();
+        } else {
+            Random rnd = new Random(7);
+            trace = new double[100_000];
+            for (int i = 0; i < trace.length; i++) {
+                // 对数正态，中位数 10ms，偶尔长尾
+                trace[i] = 10 * Math.exp(rnd.nextGaussian() * 0.2);
+            }
+        }
+        // 每 0.1ms 来一个请求（10k QPS），下游 40 并发 * 10ms = 4k QPS，一直处于过载状态
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(10, 1, 500);
+        simulate(limiter, trace, 40, 15, 100, 500);
+    }
+}
@@ -0,0 +1,386 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// ---- Lease & Transport ----
+
+/**
+ * 协调者批给某个节点的一批 token，只在 [windowId 对应的窗口] 且 expiresAtMs 之前有效
+ */
+final class TokenLease {
+    final String key;
+    final long windowId;
+    final int granted;
+    final long expiresAtMs;
+
+    TokenLease(String key, long windowId, int granted, long expiresAtMs) {
+        this.key = key;
+        this.windowId = windowId;
+        this.granted = granted;
+        this.expiresAtMs = expiresAtMs;
+    }
+}
+
+/**
+ * 节点和协调者之间的通信，可以换成 RPC / HTTP 实现
+ */
+interface LeaseTransport {
+    /** 申请最多 tokens 个，可能批得更少（0 表示本窗口已经用完） */
+    TokenLease requestLease(String nodeId, String key, int tokens);
+
+    /** lease 到期时把没用完的还回去 */
+    void returnTokens(String nodeId, TokenLease lease, int unused);
+}
+
+// ---- Coordinator ----
+
+/**
+ * 全局的 fixed window 计数：每个 key 每个窗口最多批出 limit 个 token（所有节点加起来）
+ */
+class LeaseCoordinator {
+    private static final class WindowState {
+        long windowId = -1;
+        int granted;
+    }
+
+    private final int limit;
+    private final long windowMs;
+    private final long leaseTtlMs;
+    private final ConcurrentHashMap<String, WindowState> windows = new ConcurrentHashMap<>();
+
+    LeaseCoordinator(int limit, long windowMs, long leaseTtlMs) {
+        if (limit <= 0 || windowMs <= 0 || leaseTtlMs <= 0) {
+            throw new IllegalArgumentException("limit, windowMs and leaseTtlMs must be > 0");
+        }
+        this.limit = limit;
+        this.windowMs = windowMs;
+        this.leaseTtlMs = leaseTtlMs;
+    }
+
+    TokenLease grant(String key, int tokens) {
+        long now = System.currentTimeMillis();
+        long windowId = now / windowMs;
+        long windowEnd = (windowId + 1) * windowMs;
+        WindowState w = windows.computeIfAbsent(key, k -> new WindowState());
+        synchronized (w) {
+            if (w.windowId != windowId) {
+                w.windowId = windowId;
+                w.granted = 0;
+            }
+            int n = Math.min(tokens, limit - w.granted);
+            w.granted += n;
+            return new TokenLease(key, windowId, n, Math.min(now + leaseTtlMs, windowEnd));
+        }
+    }
+
+    void giveBack(TokenLease lease, int unused) {
+        WindowState w = windows.get(lease.key);
+        if (w == null || unused <= 0) return;
+        synchronized (w) {
+            // 窗口已经换了就不用还了，新窗口本来就是满的
+            if (w.windowId == lease.windowId) {
+                w.granted = Math.max(0, w.granted - unused);
+            }
+        }
+    }
+}
+
+/**
+ * 进程内的 transport，用 parkNanos 模拟网络往返延迟，方便单机测试
+ */
+class LoopbackLeaseTransport implements LeaseTransport {
+    private final LeaseCoordinator coordinator;
+    private final long latencyMicros;
+    private final long jitterMicros;
+
+    LoopbackLeaseTransport(LeaseCoordinator coordinator, long latencyMicros, long jitterMicros) {
+        this.coordinator = coordinator;
+        this.latencyMicros = latencyMicros;
+        this.jitterMicros = jitterMicros;
+    }
+
+    @Override
+    public TokenLease requestLease(String nodeId, String key, int tokens) {
+        simulateRoundTrip();
+        return coordinator.grant(key, tokens);
+    }
+
+    @Override
+    public void returnTokens(String nodeId, TokenLease lease, int unused) {
+        simulateRoundTrip();
+        coordinator.giveBack(lease, unused);
+    }
+
+    private void simulateRoundTrip() {
+        long jitter = jitterMicros == 0 ? 0 : ThreadLocalRandom.current().nextLong(jitterMicros + 1);
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(latencyMicros + jitter));
+    }
+}
+
+// ---- Node-side limiter ----
+
+/**
+ * 多节点共享同一个限额：每个节点从协调者按批租 token，热路径只扣本地的租约余额（一次 CAS），
+ * 余额用完或租约过期才走一次网络；后台每 sweepIntervalMs 扫一遍，把过期租约里没用完的还给协调者，
+ * 不活跃的节点不会一直占着份额。
+ *
+ * 同一个 key 同时最多一个续租 / 归还在进行（inflight），网络调用不持有任何锁，其他线程等同一个结果。
+ * 协调者不可达（transport 抛异常）时按 failOpen 决定放行还是拒绝，租约状态保持原样，下次再试。
+ */
+public class DistributedRateLimiter implements RateLimiter, AutoCloseable {
+
+    private static final class LocalBudget {
+        final AtomicInteger remaining = new AtomicInteger();
+        volatile TokenLease lease;
+        // 正在进行的续租或归还，谁 CAS 进去谁做，lease / remaining 的切换只由它做
+        final AtomicReference<CompletableFuture<Void>> inflight = new AtomicReference<>();
+    }
+
+    private final String nodeId;
+    private final LeaseTransport transport;
+    private final int batchSize;
+    private final boolean failOpen;
+    private final ConcurrentHashMap<String, LocalBudget> budgets = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    public DistributedRateLimiter(String nodeId, LeaseTransport transport, int batchSize) {
+        this(nodeId, transport, batchSize, false, 100);
+    }
+
+    /**
+     * @param failOpen        协调者不可达时 true 放行、false 拒绝
+     * @param sweepIntervalMs 多久检查一次过期租约并归还没用完的 token
+     */
+    public DistributedRateLimiter(String nodeId, LeaseTransport transport, int batchSize,
+                                  boolean failOpen, long sweepIntervalMs) {
+        if (batchSize <= 0 || sweepIntervalMs <= 0) {
+            throw new IllegalArgumentException("batchSize and sweepIntervalMs must be > 0");
+        }
+        this.nodeId = Objects.requireNonNull(nodeId);
+        this.transport = Objects.requireNonNull(transport);
+        this.batchSize = batchSize;
+        this.failOpen = failOpen;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "lease-sweeper-" + nodeId);
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleWithFixedDelay(this::returnExpired, sweepIntervalMs, sweepIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 单节点 + 进程内协调者（每个窗口 1 秒、租约 200ms），往返延迟 rttMicros，方便单机压测
+     */
+    static DistributedRateLimiter inProcess(int limitPerSecond, long rttMicros, int batchSize) {
+        LeaseCoordinator coordinator = new LeaseCoordinator(limitPerSecond, 1000, 200);
+        return new DistributedRateLimiter("local", new LoopbackLeaseTransport(coordinator, rttMicros, 0), batchSize);
+    }
+
+    @Override
+    public boolean allow(String key) {
+        LocalBudget b = budgets.get(key);
+        if (b == null) {
+            b = budgets.computeIfAbsent(key, k -> new LocalBudget());
+        }
+        while (true) {
+            if (tryTakeLocal(b)) {
+                return true;
+            }
+            if (exhausted(b)) {
+                return false;
+            }
+            // 本地余额没了：同一个 key 只让一个线程去续租，其他线程等它的结果再重试
+            CompletableFuture<Void> mine = new CompletableFuture<>();
+            CompletableFuture<Void> running = b.inflight.compareAndExchange(null, mine);
+            if (running != null) {
+                try {
+                    running.join();
+                } catch (CompletionException e) {
+                    return failOpen;
+                }
+                continue;
+            }
+            try {
+                renewIfNeeded(key, b);
+            } catch (RuntimeException e) {
+                b.inflight.set(null);
+                mine.completeExceptionally(e);
+                return failOpen;
+            }
+            b.inflight.set(null);
+            mine.complete(null);
+            return tryTakeLocal(b);
+        }
+    }
+
+    /**
+     * 把所有租约里没用完的 token 还回去；transport 失败时抛出，没还成功的租约保持原样
+     */
+    public void returnAll() {
+        for (LocalBudget b : budgets.values()) {
+            while (!releaseExclusively(b, false)) {
+                CompletableFuture<Void> running = b.inflight.get();
+                if (running != null) {
+                    running.exceptionally(e -> null).join();
+                }
+            }
+        }
+    }
+
+    /**
+     * 停掉后台归还线程并调用 returnAll
+     */
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        returnAll();
+    }
+
+    // 后台定时任务：只处理已经过期、还有余额、且没有续租在进行的租约（续租时会顺便归还）
+    private void returnExpired() {
+        for (LocalBudget b : budgets.values()) {
+            try {
+                releaseExclusively(b, true);
+            } catch (RuntimeException e) {
+                // 协调者暂时不可达：租约保持原样，下一轮再还
+            }
+        }
+    }
+
+    // 拿到 inflight 才归还，拿不到返回 false
+    private boolean releaseExclusively(LocalBudget b, boolean onlyExpired) {
+        TokenLease lease = b.lease;
+        if (lease == null || b.remaining.get() <= 0
+                || (onlyExpired && System.currentTimeMillis() < lease.expiresAtMs)) {
+            return true;
+        }
+        CompletableFuture<Void> mine = new CompletableFuture<>();
+        if (!b.inflight.compareAndSet(null, mine)) {
+            return false;
+        }
+        try {
+            releaseLease(b);
+            return true;
+        } finally {
+            // 失败也正常结束：等待的线程会自己重试续租
+            b.inflight.set(null);
+            mine.complete(null);
+        }
+    }
+
+    private static boolean tryTakeLocal(LocalBudget b) {
+        TokenLease lease = b.lease;
+        if (lease == null || System.currentTimeMillis() >= lease.expiresAtMs) {
+            return false;
+        }
+        while (true) {
+            int r = b.remaining.get();
+            if (r <= 0) return false;
+            if (b.remaining.compareAndSet(r, r - 1)) return true;
+        }
+    }
+
+    // 协调者说这个窗口已经批完了：到这个空租约过期之前都直接拒绝，不再每次都走网络
+    private static boolean exhausted(LocalBudget b) {
+        TokenLease lease = b.lease;
+        return lease != null && lease.granted == 0 && System.currentTimeMillis() < lease.expiresAtMs;
+    }
+
+    // 只由 inflight 的持有者调用；别的线程可能刚续完，先再看一眼
+    private void renewIfNeeded(String key, LocalBudget b) {
+        TokenLease current = b.lease;
+        if (current != null && System.currentTimeMillis() < current.expiresAtMs
+                && (b.remaining.get() > 0 || current.granted == 0)) {
+            return;
+        }
+        releaseLease(b);
+        TokenLease lease = transport.requestLease(nodeId, key, batchSize);
+        b.remaining.set(lease.granted);
+        b.lease = lease;
+    }
+
+    // 只由 inflight 的持有者调用；归还失败时把余额放回去再抛出，租约状态不变
+    private void releaseLease(LocalBudget b) {
+        TokenLease old = b.lease;
+        if (old == null) return;
+        int unused = b.remaining.getAndSet(0);
+        if (unused > 0) {
+            try {
+                transport.returnTokens(nodeId, old, unused);
+            } catch (RuntimeException e) {
+                b.remaining.addAndGet(unused);
+                throw e;
+            }
+        }
+        b.lease = null;
+    }
+
+    // 12 个节点共用 100 req / second：对比每个节点各自跑 RateLimiterFixedWindow
+    public static void main(String[] args) throws Exception {
+        int nodes = 12;
+        int limit = 100;
+        long windowMs = 1000;
+        LeaseCoordinator coordinator = new LeaseCoordinator(limit, windowMs, 200);
+        LeaseTransport transport = new LoopbackLeaseTransport(coordinator, 1_000, 1_000); // 1~2ms RTT
+
+        RateLimiter[] distributed = new RateLimiter[nodes];
+        RateLimiter[] local = new RateLimiter[nodes];
+        for (int i = 0; i < nodes; i++) {
+            distributed[i] = new DistributedRateLimiter("node-" + i, transport, 5);
+            local[i] = new RateLimiterFixedWindow(limit, windowMs);
+        }
+
+        // 对齐到窗口开头，跑 3 个完整窗口
+        long start = (System.currentTimeMillis() / windowMs + 1) * windowMs;
+        Thread.sleep(start - System.currentTimeMillis());
+        Map<Long, LongAdder> distPerWindow = new ConcurrentHashMap<>();
+        Map<Long, LongAdder> localPerWindow = new ConcurrentHashMap<>();
+        Thread[] threads = new Thread[nodes];
+        for (int i = 0; i < nodes; i++) {
+            final int node = i;
+            threads[i] = new Thread(() -> {
+                while (System.currentTimeMillis() < start + 3 * windowMs) {
+                    // 按放行那一刻所在的窗口计数（续租可能跨过窗口边界，所以在调用之后取时间）
+                    if (distributed[node].allow("api")) {
+                        long w = System.currentTimeMillis() / windowMs;
+                        distPerWindow.computeIfAbsent(w, k -> new LongAdder()).increment();
+                    }
+                    if (local[node].allow("api")) {
+                        long w = System.currentTimeMillis() / windowMs;
+                        localPerWindow.computeIfAbsent(w, k -> new LongAdder()).increment();
+                    }
+                    LockSupport.parkNanos(200_000);
+                }
+            }, "node-" + i);
+            threads[i].start();
+        }
+        for (Thread t : threads) t.join();
+
+        System.out.println("configured limit = " + limit + " / " + windowMs + "ms across " + nodes + " nodes");
+        for (long w = start / windowMs; w < start / windowMs + 3; w++) {
+            System.out.println("window " + (w - start / windowMs)
+                    + ": distributed admitted = " + distPerWindow.getOrDefault(w, new LongAdder()).sum()
+                    + ", per-node local admitted = " + localPerWindow.getOrDefault(w, new LongAdder()).sum());
+        }
+        for (RateLimiter limiter : distributed) {
+            ((DistributedRateLimiter) limiter).close();
+        }
+
+        // 节点 a 租了 5 个只用了 1 个就不再有请求：租约过期后后台线程把剩下 4 个还回去，节点 b 能用满其余 9 个
+        LeaseCoordinator quietCoordinator = new LeaseCoordinator(10, 60_000, 200);
+        LeaseTransport quietTransport = new LoopbackLeaseTransport(quietCoordinator, 100, 0);
+        try (DistributedRateLimiter a = new DistributedRateLimiter("a", quietTransport, 5, false, 50);
+             DistributedRateLimiter b = new DistributedRateLimiter("b", quietTransport, 5, false, 50)) {
+            a.allow("api");
+            Thread.sleep(400);
+            int admitted = 0;
+            for (int i = 0; i < 20; i++) {
+                if (b.allow("api")) admitted++;
+            }
+            System.out.println("after node a went quiet, node b admitted " + admitted + " of the remaining 9");
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 三层限流 global -> tenant -> user，一次调用检查并扣减所有层级。
+ *
+ * global 是一个 LockFreeTokenBucketRateLimiter（单 long CAS）；tenant 和 user 两层各是一个 KeyedTokenBucketRateLimiter，
+ * 分段锁、没有每个桶一个对象，补满又空闲了 idleTtl 的桶会被淘汰，tenant / user 再多也不会一直占着内存。
+ * user 桶的 key 是 tenant + "/" + user，但 allow(tenant, user) 查找时不拼字符串。
+ * 同一个 tenant 的所有 user 共享同一个 tenant 桶，所有 tenant 共享同一个 global 桶，没有全局锁。
+ * 从 user 往上逐层扣：user 桶最不热、最容易失败，放最前面；某一层失败就把已经扣掉的下层还回去，
+ * 所以 user 层拒绝时不会白白消耗 tenant / global 的 token。
+ * 回滚前的短暂窗口里别人可能看到更少的 token（少放行），但不会多放行。
+ */
+public class HierarchicalRateLimiter implements RateLimiter {
+
+    private static final long DEFAULT_IDLE_TTL_MS = 60_000;
+
+    private final LockFreeTokenBucketRateLimiter global;
+    private final KeyedTokenBucketRateLimiter tenants;
+    private final KeyedTokenBucketRateLimiter users;
+
+    public HierarchicalRateLimiter(long globalCapacity, long globalRatePerSecond,
+                                   long tenantCapacity, long tenantRatePerSecond,
+                                   long userCapacity, long userRatePerSecond) {
+        this(globalCapacity, globalRatePerSecond, tenantCapacity, tenantRatePerSecond,
+                userCapacity, userRatePerSecond, DEFAULT_IDLE_TTL_MS);
+    }
+
+    /**
+     * @param idleTtlMs tenant / user 桶补满之后再空闲多久被淘汰
+     */
+    public HierarchicalRateLimiter(long globalCapacity, long globalRatePerSecond,
+                                   long tenantCapacity, long tenantRatePerSecond,
+                                   long userCapacity, long userRatePerSecond, long idleTtlMs) {
+        this.global = new LockFreeTokenBucketRateLimiter(globalCapacity, globalRatePerSecond);
+        this.tenants = new KeyedTokenBucketRateLimiter(tenantCapacity, tenantRatePerSecond, idleTtlMs);
+        this.users = new KeyedTokenBucketRateLimiter(userCapacity, userRatePerSecond, idleTtlMs);
+    }
+
+    /**
+     * key 的格式是 "tenant/user"
+     */
+    @Override
+    public boolean allow(String key) {
+        int slash = key.indexOf('/');
+        if (slash < 0) {
+            throw new IllegalArgumentException("key must be tenant/user: " + key);
+        }
+        return allow(key, null, key.substring(0, slash));
+    }
+
+    public boolean allow(String tenant, String user) {
+        return allow(tenant, user, tenant);
+    }
+
+    // user 桶是 userKey（+ "/" + user），tenant 桶是 tenant
+    private boolean allow(String userKey, String user, String tenant) {
+        long now = System.nanoTime();
+        if (!users.tryAcquire(userKey, user, 1, now)) {
+            return false;
+        }
+        if (!tenants.tryAcquire(tenant, null, 1, now)) {
+            users.refund(userKey, user, 1);
+            return false;
+        }
+        if (!global.tryAcquire(1, now)) {
+            tenants.refund(tenant, null, 1);
+            users.refund(userKey, user, 1);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 淘汰 tenant / user 两层里补满且空闲超过 idleTtl 的桶，返回淘汰数量
+     */
+    public int evictIdle() {
+        return tenants.evictIdle() + users.evictIdle();
+    }
+
+    public int size() {
+        return tenants.size() + users.size();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // global 20 / tenant 8 / user 3
+        HierarchicalRateLimiter rl = new HierarchicalRateLimiter(20, 1, 8, 1, 3, 1);
+        for (int i = 1; i <= 4; i++) {
+            System.out.println("acme/alice req " + i + ": " + rl.allow("acme", "alice"));
+        }
+        // alice 第 4 次被 user 层拒绝，没有消耗 acme 的 token：acme 还剩 5 个
+        int bob = 0, carol = 0;
+        for (int i = 0; i < 3; i++) if (rl.allow("acme", "bob")) bob++;
+        for (int i = 0; i < 3; i++) if (rl.allow("acme/carol")) carol++;
+        System.out.println("acme/bob allowed " + bob + ", acme/carol allowed " + carol + " (tenant limit 8 -> 3 + 3 + 2)");
+
+        // 并发：4 个 tenant * 50 user 一起抢，global 一共只有 capacity 个
+        HierarchicalRateLimiter shared = new HierarchicalRateLimiter(1_000, 1, 400, 1, 10, 1);
+        java.util.concurrent.atomic.AtomicInteger admitted = new java.util.concurrent.atomic.AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        for (int th = 0; th < 8; th++) {
+            pool.submit(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < 10_000; i++) {
+                    if (shared.allow("t" + rnd.nextInt(4), "u" + rnd.nextInt(50))) admitted.incrementAndGet();
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.println("admitted = " + admitted.get() + " (global 1000, tenants 4 * 400, users 200 * 10 -> at most 1000)");
+
+        // 空闲的 tenant / user 桶会被淘汰
+        HierarchicalRateLimiter churn = new HierarchicalRateLimiter(1_000_000, 1_000_000, 1_000, 1_000, 10, 1_000, 100);
+        for (int i = 0; i < 100_000; i++) {
+            churn.allow("t" + (i % 100), "u" + i);
+        }
+        System.out.println("buckets after 100k users = " + churn.size());
+        Thread.sleep(200);
+        System.out.println("evicted idle = " + churn.evictIdle() + ", buckets = " + churn.size());
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 给任意 RateLimiter 套一层观测：记录放行/拒绝、allow() 耗时（包含等锁 + 持锁时间）和被拒绝的 key。
+ * 单桶的限流器可以用 lambda 适配：new InstrumentedRateLimiter(k -> bucket.allowRequest(), metrics)
+ */
+public class InstrumentedRateLimiter implements RateLimiter {
+    private final RateLimiter delegate;
+    private final RateLimiterMetrics metrics;
+
+    public InstrumentedRateLimiter(RateLimiter delegate, RateLimiterMetrics metrics) {
+        this.delegate = Objects.requireNonNull(delegate);
+        this.metrics = Objects.requireNonNull(metrics);
+    }
+
+    @Override
+    public boolean allow(String key) {
+        long start = System.nanoTime();
+        boolean allowed = delegate.allow(key);
+        metrics.record(key, allowed, System.nanoTime() - start);
+        return allowed;
+    }
+
+    /**
+     * 交给被包装的限流器自己的 allowAll（比如 KeyedTokenBucketRateLimiter 按段批量加锁），整批记一次
+     */
+    @Override
+    public void allowAll(String[] keys, boolean[] out) {
+        long start = System.nanoTime();
+        delegate.allowAll(keys, out);
+        metrics.recordBatch(keys, out, System.nanoTime() - start);
+    }
+
+    public RateLimiterMetrics metrics() {
+        return metrics;
+    }
+
+    public static void main(String[] args) throws Exception {
+        RateLimiterMetrics metrics = new RateLimiterMetrics(5);
+        InstrumentedRateLimiter rl = new InstrumentedRateLimiter(new RateLimiterSlidingWindowCounter(50, 1000), metrics);
+
+        // 8 个线程，key 按 Zipf 风格分布：少数几个 key 特别热，会被大量拒绝
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            pool.submit(() -> {
+                ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                for (int i = 0; i < 200_000; i++) {
+                    int k = (int) Math.floor(Math.pow(10_000, rnd.nextDouble()));
+                    rl.allow("user-" + k);
+                }
+            });
+        }
+        // 跑的同时取快照，不会阻塞限流的热路径
+        for (int i = 0; i < 3; i++) {
+            Thread.sleep(200);
+            System.out.println("live: " + metrics.snapshot());
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.MINUTES);
+        System.out.println("final: " + metrics.snapshot());
+
+        TokenBucketRateLimiter bucket = new TokenBucketRateLimiter(10, 5);
+        InstrumentedRateLimiter single = new InstrumentedRateLimiter(k -> bucket.allowRequest(), new RateLimiterMetrics());
+        for (int i = 0; i < 15; i++) single.allow("global");
+        System.out.println("token bucket: " + single.metrics().snapshot()
+                + ", availableTokens = " + bucket.getAvailableTokens());
+
+        // allowAll 交给 KeyedTokenBucketRateLimiter 按段批量处理
+        InstrumentedRateLimiter keyed = new InstrumentedRateLimiter(
+                new KeyedTokenBucketRateLimiter(3, 1, 60_000), new RateLimiterMetrics(3));
+        String[] batch = new String[1000];
+        for (int i = 0; i < batch.length; i++) batch[i] = "batch-" + (i % 250);
+        keyed.allowAll(batch, new boolean[batch.length]);
+        System.out.println("keyed batch: " + keyed.metrics().snapshot());
+    }
+}
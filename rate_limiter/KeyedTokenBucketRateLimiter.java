@@ -0,0 +1,376 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按 key 的 token bucket 集合（每个 API key 一个桶），可以放下百万级的 key。
+ *
+ * 布局：key 按 hash 分到若干 segment，每个 segment 是一张 open-addressing（线性探测）表，
+ * 只有两个并行数组 String[] keys / long[] emptyAtNanos，没有每个桶一个对象。
+ * 桶的状态和 LockFreeTokenBucketRateLimiter 一样只用一个 long 表示（桶恰好为空的时刻）。
+ * 每个空闲 key 大约 1.3 ~ 2.7 个 slot * (4B 引用 + 8B long) = 16 ~ 32 字节（不含 key 字符串本身）。
+ *
+ * 每个 segment 一把锁，热路径上没有全局锁。
+ * 桶在第一次访问时才创建；已经补满并且又空闲了 ttl 的桶会被淘汰（扩容前 / evictIdle()）。
+ * 被淘汰的 key 再来时就是一个新的满桶，和保留着它没有区别。
+ *
+ * 两段式的 key（比如 tenant + user）可以用 allow(namespace, key)，和 allow(namespace + "/" + key) 是同一个桶，
+ * 但查找时不拼字符串：hash 和比较都直接在两段上算，只有第一次插入这个桶时才分配拼好的 key。
+ */
+public class KeyedTokenBucketRateLimiter implements RateLimiter {
+
+    private static final char SEPARATOR = '/';
+    private static final int INITIAL_SLOTS = 16;
+    private static final float MAX_LOAD = 0.75f;
+    // 到了 MAX_LOAD 时，清掉空闲桶之后负载还不低于这个值就直接扩容
+    private static final float REBUILD_LOAD = 0.5f;
+
+    private static final class Segment {
+        final ReentrantLock lock = new ReentrantLock();
+        String[] keys = new String[INITIAL_SLOTS];
+        long[] emptyAtNanos = new long[INITIAL_SLOTS];
+        int size;
+    }
+
+    private final long capacity;
+    private final double nanosPerToken;
+    private final long fullBucketNanos;
+    private final long idleTtlNanos;
+
+    private final Segment[] segments;
+    private final int segmentShift;
+
+    public KeyedTokenBucketRateLimiter(long capacity, long refillRatePerSecond, long idleTtlMs) {
+        this(capacity, refillRatePerSecond, idleTtlMs, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public KeyedTokenBucketRateLimiter(long capacity, long refillRatePerSecond, long idleTtlMs, int concurrency) {
+        if (capacity <= 0 || refillRatePerSecond <= 0) {
+            throw new IllegalArgumentException("capacity and refillRatePerSecond must be > 0");
+        }
+        if (idleTtlMs < 0 || concurrency <= 0) {
+            throw new IllegalArgumentException("idleTtlMs must be >= 0 and concurrency must be > 0");
+        }
+        this.capacity = capacity;
+        this.nanosPerToken = 1_000_000_000.0 / refillRatePerSecond;
+        this.fullBucketNanos = (long) (capacity * nanosPerToken);
+        this.idleTtlNanos = TimeUnit.MILLISECONDS.toNanos(idleTtlMs);
+
+        int n = 1;
+        while (n < concurrency) n <<= 1;
+        this.segments = new Segment[n];
+        for (int i = 0; i < n; i++) segments[i] = new Segment();
+        this.segmentShift = 32 - Integer.numberOfTrailingZeros(n);
+    }
+
+    @Override
+    public boolean allow(String key) {
+        return allow(key, 1);
+    }
+
+    public boolean allow(String key, long requestedTokens) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        return tryAcquire(key, null, requestedTokens, System.nanoTime());
+    }
+
+    /**
+     * 桶 namespace + "/" + key 扣 1 个 token，不拼字符串
+     */
+    public boolean allow(String namespace, String key) {
+        if (namespace == null || key == null) {
+            throw new NullPointerException(namespace == null ? "namespace" : "key");
+        }
+        return tryAcquire(namespace, key, 1, System.nanoTime());
+    }
+
+    /**
+     * 按调用方给的时间点扣 token；subKey 不为 null 时桶是 key + "/" + subKey。
+     * 和别的桶用同一个 now 一起判断时用（见 HierarchicalRateLimiter）
+     */
+    boolean tryAcquire(String key, String subKey, long requestedTokens, long now) {
+        if (requestedTokens <= 0) {
+            throw new IllegalArgumentException("requestedTokens must be > 0");
+        }
+        if (requestedTokens > capacity) {
+            return false;
+        }
+        long cost = cost(requestedTokens);
+        int h = spread(hash(key, subKey));
+        Segment seg = segmentFor(h);
+        seg.lock.lock();
+        try {
+            return tryDebit(seg, findOrInsert(seg, key, subKey, h, now), cost, now);
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    /**
+     * 还回 tryAcquire 拿到的 token（回滚用）；桶已经被淘汰就什么都不做（它本来就是满的）。
+     * 多还的部分在下次读的时候会被 capacity 截掉
+     */
+    void refund(String key, String subKey, long tokens) {
+        int h = spread(hash(key, subKey));
+        Segment seg = segmentFor(h);
+        seg.lock.lock();
+        try {
+            int slot = find(seg, key, subKey, h);
+            if (slot >= 0) {
+                seg.emptyAtNanos[slot] -= cost(tokens);
+            }
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    // 向下取整：逐个扣 capacity 次的总和不会超过 fullBucketNanos
+    private long cost(long tokens) {
+        return Math.max(1, (long) (tokens * nanosPerToken));
+    }
+
+    /**
+     * 批量检查，每个 key 扣 1 个 token。
+     * 先按 segment 做一次稳定的计数排序，然后每个 segment 只加一次锁；
+     * 同一个 key 在批次里出现多次时仍然按输入顺序扣减。
+     */
+    @Override
+    public void allowAll(String[] keys, boolean[] out) {
+        if (out.length < keys.length) {
+            throw new IllegalArgumentException("out.length must be >= keys.length");
+        }
+        int n = keys.length;
+        int[] hashes = new int[n];
+        int[] segStart = new int[segments.length + 1];
+        for (int i = 0; i < n; i++) {
+            if (keys[i] == null) {
+                throw new NullPointerException("keys[" + i + "]");
+            }
+            int h = spread(keys[i].hashCode());
+            hashes[i] = h;
+            segStart[segmentIndex(h) + 1]++;
+        }
+        for (int s = 0; s < segments.length; s++) {
+            segStart[s + 1] += segStart[s];
+        }
+        int[] order = new int[n];
+        int[] fill = Arrays.copyOf(segStart, segments.length);
+        for (int i = 0; i < n; i++) {
+            order[fill[segmentIndex(hashes[i])]++] = i;
+        }
+
+        long cost = cost(1);
+        for (int s = 0; s < segments.length; s++) {
+            int from = segStart[s], to = segStart[s + 1];
+            if (from == to) continue;
+            Segment seg = segments[s];
+            long now = System.nanoTime();
+            seg.lock.lock();
+            try {
+                for (int j = from; j < to; j++) {
+                    int i = order[j];
+                    out[i] = tryDebit(seg, findOrInsert(seg, keys[i], null, hashes[i], now), cost, now);
+                }
+            } finally {
+                seg.lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 用于调试/观测；不存在的 key 视为满桶
+     */
+    public long getAvailableTokens(String key) {
+        int h = spread(key.hashCode());
+        Segment seg = segmentFor(h);
+        long now = System.nanoTime();
+        seg.lock.lock();
+        try {
+            int slot = find(seg, key, null, h);
+            if (slot < 0) {
+                return capacity;
+            }
+            long elapsed = now - seg.emptyAtNanos[slot];
+            return elapsed <= 0 ? 0 : Math.min(capacity, (long) (elapsed / nanosPerToken));
+        } finally {
+            seg.lock.unlock();
+        }
+    }
+
+    /**
+     * 淘汰所有补满且空闲超过 ttl 的桶，返回淘汰数量。
+     * 一次只锁一个 segment，可以由后台线程定期调用。
+     */
+    public int evictIdle() {
+        int evicted = 0;
+        for (Segment seg : segments) {
+            seg.lock.lock();
+            try {
+                int before = seg.size;
+                rebuild(seg, seg.keys.length, System.nanoTime());
+                evicted += before - seg.size;
+            } finally {
+                seg.lock.unlock();
+            }
+        }
+        return evicted;
+    }
+
+    public int size() {
+        int total = 0;
+        for (Segment seg : segments) {
+            seg.lock.lock();
+            try {
+                total += seg.size;
+            } finally {
+                seg.lock.unlock();
+            }
+        }
+        return total;
+    }
+
+    // ==== open-addressing 辅助方法：都只在持有 segment lock 情况下调用 ====
+
+    // 等于 (key + "/" + subKey).hashCode()，但不分配：String.hashCode 是 31 进制多项式，可以接着往后算
+    private static int hash(String key, String subKey) {
+        int h = key.hashCode();
+        if (subKey == null) {
+            return h;
+        }
+        h = 31 * h + SEPARATOR;
+        for (int i = 0; i < subKey.length(); i++) {
+            h = 31 * h + subKey.charAt(i);
+        }
+        return h;
+    }
+
+    private static boolean keyEquals(String stored, String key, String subKey) {
+        if (subKey == null) {
+            return stored.equals(key);
+        }
+        int n = key.length();
+        return stored.length() == n + 1 + subKey.length() && stored.startsWith(key)
+                && stored.charAt(n) == SEPARATOR && stored.startsWith(subKey, n + 1);
+    }
+
+    private static int spread(int h) {
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        return h;
+    }
+
+    private int segmentIndex(int h) {
+        return segmentShift == 32 ? 0 : h >>> segmentShift;
+    }
+
+    private Segment segmentFor(int h) {
+        return segments[segmentIndex(h)];
+    }
+
+    private boolean tryDebit(Segment seg, int slot, long cost, long now) {
+        long base = Math.max(seg.emptyAtNanos[slot], now - fullBucketNanos);
+        long next = base + cost;
+        if (next - now > 0) {
+            return false;
+        }
+        seg.emptyAtNanos[slot] = next;
+        return true;
+    }
+
+    private static int find(Segment seg, String key, String subKey, int h) {
+        String[] keys = seg.keys;
+        int mask = keys.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            String k = keys[i];
+            if (k == null) return -1;
+            if (keyEquals(k, key, subKey)) return i;
+        }
+    }
+
+    private int findOrInsert(Segment seg, String key, String subKey, int h, long now) {
+        int slot = find(seg, key, subKey, h);
+        if (slot >= 0) {
+            return slot;
+        }
+        if (seg.size + 1 > seg.keys.length * MAX_LOAD) {
+            // 先数一下清掉空闲桶之后还剩多少：能降到 REBUILD_LOAD 以下才原大小重建，否则直接扩容。
+            // 这样两次重建之间至少隔 (MAX_LOAD - REBUILD_LOAD) * slots 次插入，key 一直在换也是均摊 O(1)
+            int live = countLive(seg, now);
+            int slots = live + 1 < seg.keys.length * REBUILD_LOAD ? seg.keys.length : seg.keys.length << 1;
+            rebuild(seg, slots, now);
+        }
+        String[] keys = seg.keys;
+        int mask = keys.length - 1;
+        int i = h & mask;
+        while (keys[i] != null) i = (i + 1) & mask;
+        keys[i] = subKey == null ? key : key + SEPARATOR + subKey;
+        // 新桶是满的
+        seg.emptyAtNanos[i] = now - fullBucketNanos;
+        seg.size++;
+        return i;
+    }
+
+    private boolean isIdle(long emptyAtNanos, long now) {
+        return now - emptyAtNanos >= fullBucketNanos + idleTtlNanos;
+    }
+
+    private int countLive(Segment seg, long now) {
+        int live = 0;
+        for (int j = 0; j < seg.keys.length; j++) {
+            if (seg.keys[j] != null && !isIdle(seg.emptyAtNanos[j], now)) live++;
+        }
+        return live;
+    }
+
+    /**
+     * 重新 hash 到 newSlots 大小的新数组，顺便丢掉空闲的桶（线性探测没有 tombstone）
+     */
+    private void rebuild(Segment seg, int newSlots, long now) {
+        String[] oldKeys = seg.keys;
+        long[] oldEmptyAt = seg.emptyAtNanos;
+        String[] keys = new String[newSlots];
+        long[] emptyAt = new long[newSlots];
+        int mask = newSlots - 1;
+        int size = 0;
+        for (int j = 0; j < oldKeys.length; j++) {
+            String k = oldKeys[j];
+            if (k == null || isIdle(oldEmptyAt[j], now)) continue;
+            int i = spread(k.hashCode()) & mask;
+            while (keys[i] != null) i = (i + 1) & mask;
+            keys[i] = k;
+            emptyAt[i] = oldEmptyAt[j];
+            size++;
+        }
+        seg.keys = keys;
+        seg.emptyAtNanos = emptyAt;
+        seg.size = size;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        KeyedTokenBucketRateLimiter rl = new KeyedTokenBucketRateLimiter(3, 3, 500);
+        for (int i = 1; i <= 4; i++) {
+            System.out.println("u1 req " + i + ": " + rl.allow("u1") + ", u2 req " + i + ": " + rl.allow("u2"));
+        }
+
+        String[] batch = new String[1000];
+        for (int i = 0; i < batch.length; i++) batch[i] = "batch-" + (i % 250);
+        boolean[] out = new boolean[batch.length];
+        rl.allowAll(batch, out);
+        int granted = 0;
+        for (boolean b : out) if (b) granted++;
+        System.out.println("batch of " + batch.length + " (250 keys x 4, capacity 3): granted = " + granted);
+
+        int keys = 1_000_000;
+        for (int i = 0; i < keys; i++) {
+            rl.allow("key-" + i);
+        }
+        // 插入过程中扩容时，已经空闲超过 ttl 的桶可能已经被淘汰了
+        System.out.println("size after " + keys + " keys = " + rl.size());
+        System.out.println("sleep 1.5 seconds (refill + idle ttl)...");
+        Thread.sleep(1500);
+        System.out.println("u1 still active: " + rl.allow("u1"));
+        System.out.println("evicted = " + rl.evictIdle() + ", size = " + rl.size());
+    }
+}
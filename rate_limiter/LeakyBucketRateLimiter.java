@@ -6,8 +6,9 @@ public class LeakyBucketRateLimiter {
     private final long capacity;
     private final double leakRatePerNanos;
 
-    private double water;
-    private long lastLeakTimeNanos;
+    // 只在持有 lock 时写；volatile 是为了 getCurrentWater() 不加锁也能读到
+    private volatile double water;
+    private volatile long lastLeakTimeNanos;
 
     private final ReentrantLock lock = new ReentrantLock();
 
@@ -42,6 +43,24 @@ public class LeakyBucketRateLimiter {
         }
     }
 
+    public long tryAcquireUpTo(long maxTokens) {
+        if(maxTokens <= 0) {
+            throw new IllegalArgumentException("maxTokens must be > 0");
+        }
+        lock.lock();
+        try {
+            leak();
+            long granted = Math.min((long) Math.floor(capacity - water), maxTokens);
+            if(granted <= 0) {
+                return 0;
+            }
+            water += granted;
+            return granted;
+        }finally{
+            lock.unlock();
+        }
+    }
+
     private void leak(){
         long now = System.nanoTime();
         long elapsed = now - lastLeakTimeNanos;
@@ -51,14 +70,14 @@ public class LeakyBucketRateLimiter {
         lastLeakTimeNanos = now;
     }
 
+    // 不加锁也不修改状态，按最近一次写入的值估算，并发时是近似值
     public double getCurrentWater() {
-        lock.lock();
-        try{
-            leak();
-            return water;
-        }finally{
-            lock.unlock();
+        double w = water;
+        long elapsed = System.nanoTime() - lastLeakTimeNanos;
+        if(elapsed > 0) {
+            w = Math.max(0.0, w - elapsed * leakRatePerNanos);
         }
+        return w;
     }
 
     public static void main(String[] args) throws InterruptedException{
@@ -71,6 +90,7 @@ public class LeakyBucketRateLimiter {
         }
         System.out.println("sleep 2 seconds...");
         Thread.sleep(2000);
+        System.out.println("tryAcquireUpTo(3) = " + limiter.tryAcquireUpTo(3));
         for (int i = 15; i < 20; i++) {
             boolean allowed = limiter.allowRequest();
             System.out.println("request " + i + " allowed = " + allowed +
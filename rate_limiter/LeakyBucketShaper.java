@@ -0,0 +1,208 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 真正“漏”的 leaky bucket：LeakyBucketRateLimiter 只做准入判断，这里把任务放进有界环形队列，
+ * 由一个 drain 线程按固定速率一个一个放出去，下游看到的是均匀的流量而不是突发。
+ *
+ * - 队列满了 submit 返回 false（桶溢出）
+ * - drain 线程用绝对 deadline + parkNanos，每次 deadline += interval，不会因为任务执行时间累积漂移
+ * - 空闲之后第一个任务立刻放行，不补发空闲期间“欠”的份额
+ * - 任务等到放行时刻才出队，depth() 就是真正在等的任务数；shutdownNow 返回所有没放出去的任务
+ */
+public class LeakyBucketShaper implements AutoCloseable {
+
+    private final Object[] ring;
+    private int head = 0;
+    private int tail = 0;
+    private int count = 0;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+
+    private final long intervalNanos;
+    private final Executor downstream;
+    private final Thread drainer;
+    private volatile boolean closed;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private volatile int maxDepth;
+
+    public LeakyBucketShaper(int capacity, long leakRatePerSecond) {
+        this(capacity, leakRatePerSecond, Runnable::run);
+    }
+
+    /**
+     * @param downstream 放出去的任务在哪里执行；默认直接在 drain 线程上跑，
+     *                   任务比 1 / leakRate 还慢的话应该传一个线程池进来
+     */
+    public LeakyBucketShaper(int capacity, long leakRatePerSecond, Executor downstream) {
+        if (capacity <= 0 || leakRatePerSecond <= 0) {
+            throw new IllegalArgumentException("capacity and leakRatePerSecond must be > 0");
+        }
+        this.ring = new Object[capacity];
+        this.intervalNanos = Math.max(1, 1_000_000_000L / leakRatePerSecond);
+        this.downstream = Objects.requireNonNull(downstream);
+        this.drainer = new Thread(this::drainLoop, "leaky-bucket-drainer");
+        this.drainer.setDaemon(true);
+        this.drainer.start();
+    }
+
+    /**
+     * 放入一个任务；桶满（溢出）返回 false
+     */
+    public boolean submit(Runnable task) {
+        Objects.requireNonNull(task);
+        lock.lock();
+        try {
+            // 在锁里检查：和 shutdownNow 互斥，不会在它清空队列之后又放进一个永远没人执行的任务
+            if (closed) {
+                throw new IllegalStateException("shaper is closed");
+            }
+            if (count == ring.length) {
+                overflowed.increment();
+                return false;
+            }
+            ring[tail] = task;
+            tail = (tail + 1) % ring.length;
+            count++;
+            if (count > maxDepth) {
+                maxDepth = count;
+            }
+            submitted.increment();
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainLoop() {
+        long nextReleaseNanos = System.nanoTime();
+        while (true) {
+            lock.lock();
+            try {
+                while (count == 0 && !closed) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                if (closed) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // 队头的任务留在队列里等到放行时刻；空闲过的话从现在开始算，不补发
+            long now = System.nanoTime();
+            if (nextReleaseNanos - now < 0) {
+                nextReleaseNanos = now;
+            }
+            long remaining;
+            while ((remaining = nextReleaseNanos - System.nanoTime()) > 0 && !closed) {
+                LockSupport.parkNanos(this, remaining);
+            }
+
+            Runnable task;
+            lock.lock();
+            try {
+                // 等的期间 shutdownNow 了：任务还在队列里，已经被它拿走返回给调用方
+                if (closed) {
+                    return;
+                }
+                task = (Runnable) ring[head];
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                count--;
+            } finally {
+                lock.unlock();
+            }
+            try {
+                downstream.execute(task);
+            } catch (Throwable t) {
+                // 交给线程的 UncaughtExceptionHandler 报告，drain 线程继续跑，不然队列再也没人消费
+                Thread self = Thread.currentThread();
+                self.getUncaughtExceptionHandler().uncaughtException(self, t);
+            }
+            released.increment();
+            nextReleaseNanos += intervalNanos;
+        }
+    }
+
+    // ==== 队列深度等指标 ====
+
+    public int depth() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    public long submittedCount() {
+        return submitted.sum();
+    }
+
+    public long overflowCount() {
+        return overflowed.sum();
+    }
+
+    public long releasedCount() {
+        return released.sum();
+    }
+
+    /**
+     * 停止 drain 线程，返回还没放出去的任务
+     */
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending = new ArrayList<>();
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            while (count > 0) {
+                pending.add((Runnable) ring[head]);
+                ring[head] = null;
+                head = (head + 1) % ring.length;
+                count--;
+            }
+        } finally {
+            lock.unlock();
+        }
+        LockSupport.unpark(drainer);
+        return pending;
+    }
+
+    @Override
+    public void close() {
+        shutdownNow();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        // 20 个 / 秒匀速放出，桶最多积压 10 个
+        try (LeakyBucketShaper shaper = new LeakyBucketShaper(10, 20)) {
+            long start = System.nanoTime();
+            // 一次来 15 个的突发：桶里最多放 10 个（drain 线程可能已经先放出第 1 个），其余溢出
+            for (int i = 0; i < 15; i++) {
+                final int id = i;
+                boolean ok = shaper.submit(() -> System.out.printf("  task %2d released at %4d ms%n",
+                        id, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+                if (!ok) System.out.println("task " + id + " overflowed");
+            }
+            System.out.println("depth = " + shaper.depth() + ", maxDepth = " + shaper.maxDepth());
+            Thread.sleep(700);
+            System.out.println("submitted = " + shaper.submittedCount() + ", overflowed = " + shaper.overflowCount()
+                    + ", released = " + shaper.releasedCount() + ", depth = " + shaper.depth());
+        }
+    }
+}
@@ -0,0 +1,154 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁版 token bucket。
+ *
+ * 整个桶的状态只有一个 long：emptyAtNanos，表示“桶里 token 恰好为 0 的那个时刻”。
+ *   tokens(now) = min(capacity, (now - emptyAtNanos) / nanosPerToken)
+ * 这样 token 数和上次 refill 时间被压在同一个 AtomicLong 里，一次 CAS 就能原子地 refill + 扣减，
+ * 小数部分的 token 也不会丢（精度到纳秒）。
+ */
+public class LockFreeTokenBucketRateLimiter {
+
+    private final long capacity;
+    private final double nanosPerToken;
+    private final long fullBucketNanos;
+
+    private final AtomicLong emptyAtNanos;
+
+    public LockFreeTokenBucketRateLimiter(long capacity, long refillRatePerSecond) {
+        if (capacity <= 0 || refillRatePerSecond <= 0) {
+            throw new IllegalArgumentException("capacity and refillRatePerSecond must be > 0");
+        }
+        this.capacity = capacity;
+        this.nanosPerToken = 1_000_000_000.0 / refillRatePerSecond;
+        this.fullBucketNanos = (long) (capacity * nanosPerToken);
+        // 初始化为满桶
+        this.emptyAtNanos = new AtomicLong(System.nanoTime() - fullBucketNanos);
+    }
+
+    public boolean allowRequest() {
+        return allowRequest(1);
+    }
+
+    public boolean allowRequest(long requestedTokens) {
+        if (requestedTokens <= 0) {
+            throw new IllegalArgumentException("requestedTokens must be > 0");
+        }
+        return tryAcquire(requestedTokens, System.nanoTime());
+    }
+
+    /**
+     * 按调用方给的时间点扣 token；多个桶要用同一个 now 一起判断时用（见 HierarchicalRateLimiter）
+     */
+    boolean tryAcquire(long requestedTokens, long now) {
+        if (requestedTokens > capacity) {
+            return false;
+        }
+        long cost = cost(requestedTokens);
+        while (true) {
+            long cur = emptyAtNanos.get();
+            // 超过 capacity 的部分不累积：最早只能从 now - fullBucketNanos 开始算
+            long base = Math.max(cur, now - fullBucketNanos);
+            long next = base + cost;
+            if (next - now > 0) {
+                return false;
+            }
+            if (emptyAtNanos.compareAndSet(cur, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 还回 tryAcquire 拿到的 token（回滚用）。多还的部分在下次读的时候会被 capacity 截掉
+     */
+    void refund(long tokens) {
+        emptyAtNanos.addAndGet(-cost(tokens));
+    }
+
+    // 向下取整：逐个扣 capacity 次的总和不会超过 fullBucketNanos
+    private long cost(long tokens) {
+        return Math.max(1, (long) (tokens * nanosPerToken));
+    }
+
+    /**
+     * 批量获取：一次 CAS 最多拿 maxTokens 个，返回实际拿到的数量（可能为 0）
+     */
+    public long tryAcquireUpTo(long maxTokens) {
+        if (maxTokens <= 0) {
+            throw new IllegalArgumentException("maxTokens must be > 0");
+        }
+        long now = System.nanoTime();
+        while (true) {
+            long cur = emptyAtNanos.get();
+            long base = Math.max(cur, now - fullBucketNanos);
+            long available = now - base <= 0 ? 0 : (long) ((now - base) / nanosPerToken);
+            long granted = Math.min(Math.min(available, capacity), maxTokens);
+            if (granted <= 0) {
+                return 0;
+            }
+            long next = base + (long) (granted * nanosPerToken);
+            if (emptyAtNanos.compareAndSet(cur, next)) {
+                return granted;
+            }
+        }
+    }
+
+    /**
+     * 用于调试/观测，不加锁，只读一次 volatile
+     */
+    public long getAvailableTokens() {
+        long elapsed = System.nanoTime() - emptyAtNanos.get();
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return Math.min(capacity, (long) (elapsed / nanosPerToken));
+    }
+
+    // ==== 与 TokenBucketRateLimiter 的吞吐对比（计时骨架在 ../benchmark/ConcurrentBenchmark） ====
+
+    interface Limiter {
+        boolean tryAcquire();
+    }
+
+    static long measure(Limiter limiter, int threads, long durationMs) throws InterruptedException {
+        return (long) ConcurrentBenchmark.opsPerSecond(threads, durationMs, (id, deadline) -> {
+            long n = 0;
+            while (System.nanoTime() < deadline) {
+                limiter.tryAcquire();
+                n++;
+            }
+            return n;
+        });
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LockFreeTokenBucketRateLimiter limiter = new LockFreeTokenBucketRateLimiter(10, 5);
+        for (int i = 0; i < 15; i++) {
+            boolean allowed = limiter.allowRequest();
+            System.out.println("request " + i + " allowed = " + allowed
+                    + ", availableTokens = " + limiter.getAvailableTokens());
+        }
+        System.out.println("sleep 2 seconds...");
+        Thread.sleep(2000);
+        System.out.println("tryAcquireUpTo(3) = " + limiter.tryAcquireUpTo(3));
+        for (int i = 15; i < 20; i++) {
+            boolean allowed = limiter.allowRequest();
+            System.out.println("request " + i + " allowed = " + allowed
+                    + ", availableTokens = " + limiter.getAvailableTokens());
+        }
+
+        // 粗略的 ops/s 对比（非 JMH），capacity/rate 设得很大，让两者都一直走 “allowed” 路径
+        long durationMs = 1000;
+        for (int threads : new int[]{1, 8, 64}) {
+            TokenBucketRateLimiter locked = new TokenBucketRateLimiter(Long.MAX_VALUE / 4, 1_000_000_000L);
+            LockFreeTokenBucketRateLimiter lockFree = new LockFreeTokenBucketRateLimiter(1L << 40, 1_000_000_000L);
+            measure(locked::allowRequest, threads, 200);
+            measure(lockFree::allowRequest, threads, 200);
+            long a = measure(locked::allowRequest, threads, durationMs);
+            long b = measure(lockFree::allowRequest, threads, durationMs);
+            System.out.printf("threads=%-3d ReentrantLock: %,12d ops/s   CAS: %,12d ops/s%n", threads, a, b);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 所有限流器放在一起横向对比：线程数 x key 数量 x 放行比例，输出吞吐、p99 延迟和每次调用的分配字节数。
+ * 改任何限流器之前先跑一遍对比。
+ *
+ * 用法：java RateLimiterBenchmark [measureMs] [limiter 名字过滤]
+ * 多线程部分用 ../benchmark 下的 ConcurrentBenchmark，编译：javac -sourcepath .:../benchmark -d out *.java
+ * 不是 JMH：没有 fork、没有防死代码消除，只适合看相对差距和数量级。
+ */
+public class RateLimiterBenchmark {
+
+    interface Op {
+        boolean run(int keyIndex);
+
+        /** 这一组跑完之后释放资源（后台线程等） */
+        default void close() {
+        }
+    }
+
+    interface Factory {
+        /** 返回 null 表示这个组合不适用（比如内存放不下） */
+        Op create(String[] keys, long limitPerSecond);
+    }
+
+    private static final Map<String, Factory> LIMITERS = new LinkedHashMap<>();
+
+    static {
+        LIMITERS.put("TokenBucket", (keys, limit) -> {
+            TokenBucketRateLimiter[] b = new TokenBucketRateLimiter[keys.length];
+            for (int i = 0; i < b.length; i++) b[i] = new TokenBucketRateLimiter(limit, limit);
+            return k -> b[k].allowRequest();
+        });
+        LIMITERS.put("LockFreeTokenBucket", (keys, limit) -> {
+            LockFreeTokenBucketRateLimiter[] b = new LockFreeTokenBucketRateLimiter[keys.length];
+            for (int i = 0; i < b.length; i++) b[i] = new LockFreeTokenBucketRateLimiter(limit, limit);
+            return k -> b[k].allowRequest();
+        });
+        LIMITERS.put("StripedTokenBucket", (keys, limit) -> {
+            // 只用于单个热点 key
+            if (keys.length != 1) return null;
+            StripedTokenBucketRateLimiter b = new StripedTokenBucketRateLimiter(limit, limit);
+            return k -> b.allowRequest();
+        });
+        LIMITERS.put("KeyedTokenBucket", (keys, limit) -> {
+            KeyedTokenBucketRateLimiter rl = new KeyedTokenBucketRateLimiter(limit, limit, 60_000);
+            return k -> rl.allow(keys[k]);
+        });
+        LIMITERS.put("LeakyBucket", (keys, limit) -> {
+            LeakyBucketRateLimiter[] b = new LeakyBucketRateLimiter[keys.length];
+            for (int i = 0; i < b.length; i++) b[i] = new LeakyBucketRateLimiter(limit, limit);
+            return k -> b[k].allowRequest();
+        });
+        LIMITERS.put("FixedWindow", (keys, limit) -> {
+            RateLimiter rl = new RateLimiterFixedWindow((int) limit, 1000);
+            return k -> rl.allow(keys[k]);
+        });
+        LIMITERS.put("SlidingWindowLog", (keys, limit) -> {
+            // 每个 key 预分配 limit 大小的 ArrayDeque，key 多 + limit 大时会把堆撑爆
+            if ((long) keys.length * limit > 20_000_000L) return null;
+            RateLimiter rl = new RateLimiterSlidingWindowLog((int) limit, 1000);
+            return k -> rl.allow(keys[k]);
+        });
+        LIMITERS.put("SlidingWindowCounter", (keys, limit) -> {
+            RateLimiter rl = new RateLimiterSlidingWindowCounter((int) limit, 1000);
+            return k -> rl.allow(keys[k]);
+        });
+        LIMITERS.put("Distributed", (keys, limit) -> {
+            // 每个 key 一份本地租约 + 协调者一份窗口状态，百万 key 时对象太多
+            if (keys.length > 100_000) return null;
+            // 单节点 + 进程内协调者，100us 模拟往返；一批 1% 的限额，续租不会太频繁
+            DistributedRateLimiter rl = DistributedRateLimiter.inProcess((int) limit, 100, (int) Math.max(1, limit / 100));
+            return new Op() {
+                @Override
+                public boolean run(int keyIndex) {
+                    return rl.allow(keys[keyIndex]);
+                }
+
+                @Override
+                public void close() {
+                    rl.close();
+                }
+            };
+        });
+    }
+
+    static final class Result {
+        long ops;
+        long admitted;
+        long allocatedBytes;
+        final long[] histogram;
+
+        Result(long ops, long admitted, long allocatedBytes, long[] histogram) {
+            this.ops = ops;
+            this.admitted = admitted;
+            this.allocatedBytes = allocatedBytes;
+            this.histogram = histogram;
+        }
+    }
+
+    static Result run(Op op, int keyCount, int threads, long durationMs) throws InterruptedException {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LongAdder admitted = new LongAdder();
+        LongAdder allocated = new LongAdder();
+        // 每个线程一份普通数组计数，跑完再合并：不让线程在共享的直方图上互相抢，测到的是限流器本身
+        long[][] latency = new long[threads][];
+        long ops = ConcurrentBenchmark.run(threads, durationMs, (id, deadline) -> {
+            long tid = Thread.currentThread().getId();
+            long allocBefore = mx.getThreadAllocatedBytes(tid);
+            // xorshift 选 key，避免 ThreadLocalRandom 之外的分配
+            long seed = System.nanoTime() | 1;
+            long[] counts = new long[RateLimiterMetrics.LatencyHistogram.BUCKETS];
+            long n = 0, ok = 0;
+            while (true) {
+                long s = System.nanoTime();
+                if (s >= deadline) break;
+                seed ^= seed << 13;
+                seed ^= seed >>> 7;
+                seed ^= seed << 17;
+                int k = keyCount == 1 ? 0 : (int) ((seed >>> 1) % keyCount);
+                if (op.run(k)) ok++;
+                counts[RateLimiterMetrics.LatencyHistogram.index(System.nanoTime() - s)]++;
+                n++;
+            }
+            allocated.add(mx.getThreadAllocatedBytes(tid) - allocBefore);
+            latency[id] = counts;
+            admitted.add(ok);
+            return n;
+        });
+        long[] histogram = new long[RateLimiterMetrics.LatencyHistogram.BUCKETS];
+        for (long[] counts : latency) {
+            for (int i = 0; i < histogram.length; i++) histogram[i] += counts[i];
+        }
+        return new Result(ops, admitted.sum(), allocated.sum(), histogram);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        long measureMs = args.length > 0 ? Long.parseLong(args[0]) : 500;
+        String filter = args.length > 1 ? args[1] : "";
+        int[] threadCounts = {1, 4, 16};
+        int[] keyCounts = {1, 1_000, 1_000_000};
+        // 每个 key 每秒的限额：high 基本全放行，low 基本全拒绝
+        long[] limits = {1_000_000, 10};
+
+        System.out.printf("%-22s %8s %9s %8s %14s %8s %10s %10s%n",
+                "limiter", "threads", "keys", "limit/s", "ops/s", "admit%", "p99(ns)", "B/op");
+        for (Map.Entry<String, Factory> e : LIMITERS.entrySet()) {
+            if (!e.getKey().contains(filter)) continue;
+            for (int keyCount : keyCounts) {
+                String[] keys = new String[keyCount];
+                for (int i = 0; i < keyCount; i++) keys[i] = "key-" + i;
+                for (long limit : limits) {
+                    for (int threads : threadCounts) {
+                        Op op = e.getValue().create(keys, limit);
+                        if (op == null) {
+                            System.out.printf("%-22s %8d %9d %8d %14s%n", e.getKey(), threads, keyCount, limit, "skipped");
+                            continue;
+                        }
+                        run(op, keyCount, threads, Math.max(100, measureMs / 2)); // warmup
+                        Result r = run(op, keyCount, threads, measureMs);
+                        System.out.printf("%-22s %8d %9d %8d %,14d %7.1f%% %10d %10.1f%n",
+                                e.getKey(), threads, keyCount, limit,
+                                r.ops * 1000 / measureMs,
+                                r.ops == 0 ? 0.0 : 100.0 * r.admitted / r.ops,
+                                RateLimiterMetrics.LatencyHistogram.percentile(r.histogram, 0.99),
+                                r.ops == 0 ? 0.0 : (double) r.allocatedBytes / r.ops);
+                        op.close();
+                        op = null;
+                        System.gc();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,20 +1,32 @@
 import java.util.concurrent.*;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 interface RateLimiter {
     boolean allow(String key);
+
+    /**
+     * 批量检查：out[i] = allow(keys[i])，按 keys 的顺序处理。
+     * 默认实现就是逐个调用；有分段锁的实现会按段分组，每个段只加一次锁。
+     */
+    default void allowAll(String[] keys, boolean[] out) {
+        if (out.length < keys.length) {
+            throw new IllegalArgumentException("out.length must be >= keys.length");
+        }
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = allow(keys[i]);
+        }
+    }
 }
 
 public class RateLimiterFixedWindow implements RateLimiter {
-    private static final class Window {
-        final long startMs;
-        final int count;
-        Window(long startMs, int count) { this.startMs = startMs; this.count = count; }
-    }
+    // 每个 key 一个 AtomicLong：高 32 位是窗口编号（now / windowMs），低 32 位是窗口内计数。
+    // 热路径只是 CHM.get + CAS，不走 compute()，不拿 bin lock，也不分配对象。
+    private static final long COUNT_MASK = 0xFFFF_FFFFL;
 
     private final long windowMs;
     private final int limit;
-    private final ConcurrentHashMap<String, Window> buckets = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
 
     public RateLimiterFixedWindow(int limit, long windowMs) {
         this.limit = limit;
@@ -24,48 +36,29 @@ public class RateLimiterFixedWindow implements RateLimiter {
     @Override
     public boolean allow(String key) {
         final long now = System.currentTimeMillis();
-        final long winStart = now - (now % windowMs);
-        System.out.println("now: " + now + "  winStart: " + winStart);
+        final long winId = (now / windowMs) & COUNT_MASK;
 
-        // Atomic per-key update using compute
-        final boolean[] allowed = new boolean[1];
-        buckets.compute(key, (k, w) -> {
-            if (w == null || w.startMs != winStart) {
+        AtomicLong cell = buckets.get(key);
+        if (cell == null) {
+            // 只有第一次见到这个 key 才会分配
+            cell = buckets.computeIfAbsent(key, k -> new AtomicLong());
+        }
+        while (true) {
+            long cur = cell.get();
+            long next;
+            if ((cur >>> 32) != winId) {
                 // new window
-                allowed[0] = 1 <= limit;
-                return new Window(winStart, allowed[0] ? 1 : 0);
+                if (limit < 1) return false;
+                next = (winId << 32) | 1;
             } else {
-                if (w.count < limit) {
-                    allowed[0] = true;
-                    return new Window(w.startMs, w.count + 1);
-                } else {
-                    allowed[0] = false;
-                    return w;
-                }
+                long count = cur & COUNT_MASK;
+                if (count >= limit) return false;
+                next = cur + 1;
             }
-        });
-
-        return allowed[0];
-
-
-        // not thread-safe
-        // if(!buckets.containsKey(key)) {
-        //     buckets.put(key, new Window(winStart, 1));
-        //     return true;
-        // }else{
-        //     Window cur = buckets.get(key);
-        //     if(cur.startMs != winStart) {
-        //         buckets.put(key, new Window(winStart, 1));
-        //         return true;
-        //     }else{
-        //         if(cur.count + 1 <= limit) {
-        //             buckets.put(key, new Window(winStart, cur.count + 1));
-        //             return true;
-        //         }else{
-        //             return false;
-        //         }
-        //     }
-        // }
+            if (cell.compareAndSet(cur, next)) {
+                return true;
+            }
+        }
     }
 
     // small demo
@@ -76,5 +69,19 @@ public class RateLimiterFixedWindow implements RateLimiter {
         }
         Thread.sleep(1000);
         System.out.println("new window -> " + rl.allow("u1"));
+
+        // 稳态下 allow() 每次分配的字节数（HotSpot 的线程分配计数器，先预热让 JIT 编译完）
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+        RateLimiter hot = new RateLimiterFixedWindow(1_000, 1000);
+        String[] keys = new String[64];
+        for (int i = 0; i < keys.length; i++) keys[i] = "key-" + i;
+        int iterations = 5_000_000;
+        for (int i = 0; i < iterations; i++) hot.allow(keys[i & 63]);
+        long tid = Thread.currentThread().getId();
+        long before = mx.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < iterations; i++) hot.allow(keys[i & 63]);
+        long after = mx.getThreadAllocatedBytes(tid);
+        System.out.printf("allocated %.3f B/op%n", (double) (after - before) / iterations);
     }
 }
@@ -0,0 +1,255 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * count-min sketch：depth 行 * width 列的计数器，估计值只会偏大不会偏小
+ */
+final class CountMinSketch {
+    private static final long[] SEEDS = {
+            0x9E3779B97F4A7C15L, 0xC2B2AE3D27D4EB4FL, 0x165667B19E3779F9L, 0xD6E8FEB86659FD93L
+    };
+
+    private final int width;
+    private final AtomicLongArray table;
+
+    CountMinSketch(int width) {
+        int w = 1;
+        while (w < width) w <<= 1;
+        this.width = w;
+        this.table = new AtomicLongArray(SEEDS.length * w);
+    }
+
+    /** 加 1 并返回加完之后的估计值 */
+    long incrementAndEstimate(String key) {
+        long h = key.hashCode();
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < SEEDS.length; row++) {
+            long v = table.incrementAndGet(row * width + slot(h, row));
+            min = Math.min(min, v);
+        }
+        return min;
+    }
+
+    long estimate(String key) {
+        long h = key.hashCode();
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < SEEDS.length; row++) {
+            min = Math.min(min, table.get(row * width + slot(h, row)));
+        }
+        return min;
+    }
+
+    private int slot(long h, int row) {
+        long x = (h + row) * SEEDS[row];
+        x ^= (x >>> 29);
+        return (int) x & (width - 1);
+    }
+}
+
+/**
+ * 限流器的观测数据：放行/拒绝计数（LongAdder）、allow() 耗时直方图、被拒绝最多的 top-N key。
+ * 热路径上全部是无锁的自增；snapshot() 只读，不会阻塞热路径。
+ */
+public class RateLimiterMetrics {
+
+    /**
+     * HDR 风格的 log-linear 直方图：每个 2 的幂区间再切 16 份，相对误差 ~6%。
+     * 计数按线程 id 分到若干条带（每条带一个独立的 AtomicLongArray），热点桶不会被所有线程抢同一条 cache line；
+     * 记录只是本条带里一次自增，不加锁；快照时把各条带加起来，不会阻塞记录方。
+     * 只在一个线程里计数时可以直接用 long[BUCKETS] + index()，最后合并再用 percentile()（见 RateLimiterBenchmark）。
+     */
+    static final class LatencyHistogram {
+        private static final int SUB_BITS = 4;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+        static final int BUCKETS = (64 - SUB_BITS + 1) << SUB_BITS;
+        private static final int STRIPES =
+                Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1);
+
+        private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+        LatencyHistogram() {
+            for (int i = 0; i < STRIPES; i++) {
+                stripes[i] = new AtomicLongArray(BUCKETS);
+            }
+        }
+
+        void record(long value) {
+            record(value, 1);
+        }
+
+        /** 记录 count 次同样的值（批量调用按平均耗时记） */
+        void record(long value, long count) {
+            long id = Thread.currentThread().getId();
+            int stripe = (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+            stripes[stripe].addAndGet(index(Math.max(0, value)), count);
+        }
+
+        static int index(long v) {
+            if (v < SUB_COUNT) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB_COUNT - 1);
+            return ((exp - SUB_BITS + 1) << SUB_BITS) + sub;
+        }
+
+        /** 桶的上界（含），报告百分位时用上界，宁可高估 */
+        static long upperBound(int idx) {
+            if (idx < SUB_COUNT) return idx;
+            int exp = (idx >> SUB_BITS) + SUB_BITS - 1;
+            int sub = idx & (SUB_COUNT - 1);
+            long lower = (long) (SUB_COUNT + sub) << (exp - SUB_BITS);
+            return lower + (1L << (exp - SUB_BITS)) - 1;
+        }
+
+        long[] snapshot() {
+            long[] copy = new long[BUCKETS];
+            for (AtomicLongArray counts : stripes) {
+                for (int i = 0; i < BUCKETS; i++) copy[i] += counts.get(i);
+            }
+            return copy;
+        }
+
+        static long percentile(long[] snapshot, double p) {
+            long total = 0;
+            for (long c : snapshot) total += c;
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(total * p);
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= Math.max(1, rank)) return upperBound(i);
+            }
+            return upperBound(snapshot.length - 1);
+        }
+    }
+
+    public static final class Snapshot {
+        public final long admitted;
+        public final long rejected;
+        public final long p50Nanos;
+        public final long p99Nanos;
+        public final long p999Nanos;
+        public final long maxNanos;
+        public final List<Map.Entry<String, Long>> topRejected;
+
+        Snapshot(long admitted, long rejected, long[] histogram, List<Map.Entry<String, Long>> topRejected) {
+            this.admitted = admitted;
+            this.rejected = rejected;
+            this.p50Nanos = LatencyHistogram.percentile(histogram, 0.50);
+            this.p99Nanos = LatencyHistogram.percentile(histogram, 0.99);
+            this.p999Nanos = LatencyHistogram.percentile(histogram, 0.999);
+            this.maxNanos = LatencyHistogram.percentile(histogram, 1.0);
+            this.topRejected = topRejected;
+        }
+
+        @Override
+        public String toString() {
+            return "admitted=" + admitted + ", rejected=" + rejected
+                    + ", allow() p50=" + p50Nanos + "ns p99=" + p99Nanos + "ns p99.9=" + p999Nanos
+                    + "ns max<=" + maxNanos + "ns, topRejected=" + topRejected;
+        }
+    }
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final int topN;
+    private final CountMinSketch rejectSketch;
+    // 候选集合最多 4 * topN 个，超过就由抢到 tryLock 的线程裁到 2 * topN，别的线程不等。
+    // 只存 key，排序时的计数都是重新从 sketch 估计的
+    private final Set<String> candidates = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock pruneLock = new ReentrantLock();
+    private volatile long admitThreshold;
+
+    public RateLimiterMetrics() {
+        this(10);
+    }
+
+    public RateLimiterMetrics(int topN) {
+        if (topN <= 0) {
+            throw new IllegalArgumentException("topN must be > 0");
+        }
+        this.topN = topN;
+        this.rejectSketch = new CountMinSketch(Math.max(1024, topN * 256));
+    }
+
+    public void record(String key, boolean allowed, long latencyNanos) {
+        latency.record(latencyNanos);
+        if (allowed) {
+            admitted.increment();
+        } else {
+            rejected.increment();
+            trackRejected(key);
+        }
+    }
+
+    /**
+     * 记录一次批量调用（allowAll）：latencyNanos 是整批的耗时，按每个 key 的平均耗时计入直方图
+     */
+    public void recordBatch(String[] keys, boolean[] out, long latencyNanos) {
+        int n = keys.length;
+        if (n == 0) {
+            return;
+        }
+        latency.record(latencyNanos / n, n);
+        int allowed = 0;
+        for (int i = 0; i < n; i++) {
+            if (out[i]) {
+                allowed++;
+            } else {
+                trackRejected(keys[i]);
+            }
+        }
+        admitted.add(allowed);
+        rejected.add(n - allowed);
+    }
+
+    private void trackRejected(String key) {
+        if (key == null) {
+            return;
+        }
+        long estimate = rejectSketch.incrementAndEstimate(key);
+        // 已经在候选里的热 key 不用再写 map
+        if (estimate <= admitThreshold || candidates.contains(key) || !candidates.add(key)) {
+            return;
+        }
+        if (candidates.size() > 4 * topN && pruneLock.tryLock()) {
+            try {
+                prune();
+            } finally {
+                pruneLock.unlock();
+            }
+        }
+    }
+
+    public Snapshot snapshot() {
+        List<Map.Entry<String, Long>> top = new ArrayList<>();
+        for (String key : candidates) {
+            top.add(Map.entry(key, rejectSketch.estimate(key)));
+        }
+        top.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        if (top.size() > topN) {
+            top = new ArrayList<>(top.subList(0, topN));
+        }
+        return new Snapshot(admitted.sum(), rejected.sum(), latency.snapshot(), top);
+    }
+
+    private void prune() {
+        List<Map.Entry<String, Long>> all = new ArrayList<>();
+        for (String key : candidates) {
+            all.add(Map.entry(key, rejectSketch.estimate(key)));
+        }
+        all.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        int keep = 2 * topN;
+        for (int i = keep; i < all.size(); i++) {
+            candidates.remove(all.get(i).getKey());
+        }
+        if (all.size() > keep) {
+            // 以后估计值不超过当前第 keep 名的 key 不用再进候选集合
+            admitThreshold = all.get(keep - 1).getValue();
+        }
+    }
+}
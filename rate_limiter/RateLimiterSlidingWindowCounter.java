@@ -0,0 +1,112 @@
+import java.util.concurrent.*;
+import java.util.*;
+
+/**
+ * Sliding window counter：每个 key 只保留“上一个窗口”和“当前窗口”两个计数，
+ * 按当前窗口已经过去的比例对上一个窗口做线性插值：
+ *   estimate = prev * (windowMs - elapsed) / windowMs + cur
+ * 每个 key O(1) 内存，allow() 在 key 已存在时不分配对象。
+ * 代价是假设上一个窗口内的请求是均匀分布的，所以是近似值（见 main 里的对比）。
+ */
+public class RateLimiterSlidingWindowCounter implements RateLimiter {
+    private static final class Counter {
+        long startMs;
+        int prev;
+        int cur;
+    }
+
+    private final long windowMs;
+    private final int limit;
+    private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public RateLimiterSlidingWindowCounter(int limit, long windowMs) {
+        if (limit <= 0 || windowMs <= 0) {
+            throw new IllegalArgumentException("limit and windowMs must be > 0");
+        }
+        this.limit = limit;
+        this.windowMs = windowMs;
+    }
+
+    @Override
+    public boolean allow(String key) {
+        return allow(key, System.currentTimeMillis());
+    }
+
+    // 时间由调用方传入，方便用模拟时钟回放流量
+    boolean allow(String key, long now) {
+        Counter c = counters.get(key);
+        if (c == null) {
+            c = counters.computeIfAbsent(key, k -> new Counter());
+        }
+        synchronized (c) {
+            final long winStart = now - (now % windowMs);
+            if (c.startMs != winStart) {
+                // 紧挨着的下一个窗口：cur 变成 prev；隔了不止一个窗口：都清零
+                c.prev = (winStart - c.startMs == windowMs) ? c.cur : 0;
+                c.cur = 0;
+                c.startMs = winStart;
+            }
+            long elapsed = now - winStart;
+            // 全部用整数比较，避免浮点：prev * (windowMs - elapsed) / windowMs + cur < limit
+            if ((long) c.prev * (windowMs - elapsed) + (long) c.cur * windowMs < (long) limit * windowMs) {
+                c.cur++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // small demo + 和精确的 RateLimiterSlidingWindowLog 的准确度对比
+    public static void main(String[] args) {
+        RateLimiterSlidingWindowCounter rl = new RateLimiterSlidingWindowCounter(3, 1000); // 3 req / second, sliding
+        for (int i = 1; i <= 3; i++) System.out.println("t=0    req " + i + ": " + rl.allow("u1", 0));
+        System.out.println("t=400  req 4 (should fail): " + rl.allow("u1", 400));
+        // 3 * 0.9 + 0 = 2.7 < 3
+        System.out.println("t=1100 req 5 (should pass): " + rl.allow("u1", 1100));
+        // 3 * 0.5 + 1 = 2.5 < 3 ；3 * 0.5 + 2 = 3.5 >= 3
+        System.out.println("t=1500 req 6 (should pass): " + rl.allow("u1", 1500));
+        System.out.println("t=1500 req 7 (should fail): " + rl.allow("u1", 1500));
+
+        // 模拟时钟下的突发流量：平时每 ms 约 0.05 个请求，每隔几秒来一段 200ms、每 ms 约 2 个请求的突发
+        int limit = 100;
+        long windowMs = 1000;
+        long durationMs = 120_000;
+        String[] keys = {"k0", "k1", "k2", "k3"};
+        RateLimiterSlidingWindowLog exact = new RateLimiterSlidingWindowLog(limit, windowMs);
+        RateLimiterSlidingWindowCounter approx = new RateLimiterSlidingWindowCounter(limit, windowMs);
+        Random rnd = new Random(42);
+
+        long total = 0, exactAllowed = 0, approxAllowed = 0, disagree = 0;
+        int maxInWindow = 0;
+        Map<String, ArrayDeque<Long>> approxLog = new HashMap<>();
+        for (long t = 0; t < durationMs; t++) {
+            for (String key : keys) {
+                boolean burst = (t / 200 + key.hashCode()) % 17 == 0;
+                double rate = burst ? 2.0 : 0.05;
+                int n = 0;
+                while (rnd.nextDouble() < rate / (n + 1.0)) n++;
+                for (int i = 0; i < n; i++) {
+                    total++;
+                    boolean a = exact.allow(key, t);
+                    boolean b = approx.allow(key, t);
+                    if (a) exactAllowed++;
+                    if (b) {
+                        approxAllowed++;
+                        ArrayDeque<Long> q = approxLog.computeIfAbsent(key, k -> new ArrayDeque<>());
+                        while (!q.isEmpty() && q.peekFirst() < t - windowMs) q.pollFirst();
+                        q.addLast(t);
+                        maxInWindow = Math.max(maxInWindow, q.size());
+                    }
+                    if (a != b) disagree++;
+                }
+            }
+        }
+        System.out.println("---- accuracy vs sliding window log (limit=" + limit + "/" + windowMs + "ms, bursty) ----");
+        System.out.println("requests           = " + total);
+        System.out.println("allowed (log)      = " + exactAllowed);
+        System.out.println("allowed (counter)  = " + approxAllowed
+                + String.format(" (%+.2f%%)", 100.0 * (approxAllowed - exactAllowed) / exactAllowed));
+        System.out.println(String.format("decision mismatch  = %d (%.2f%%)", disagree, 100.0 * disagree / total));
+        System.out.println("max admitted in any " + windowMs + "ms window (counter) = " + maxInWindow);
+    }
+}
@@ -13,7 +13,11 @@ public class RateLimiterSlidingWindowLog implements RateLimiter {
 
     @Override
     public boolean allow(String key) {
-        final long now = System.currentTimeMillis();
+        return allow(key, System.currentTimeMillis());
+    }
+
+    // 时间由调用方传入，方便用模拟时钟回放流量
+    boolean allow(String key, long now) {
         final long cutoff = now - windowMs;
 
         Deque<Long> q = logs.computeIfAbsent(key, k -> new ArrayDeque<>(limit));
@@ -0,0 +1,171 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 单个热点 key（比如全局总流量限制）用的分片 token bucket。
+ *
+ * 把 capacity 和 refill rate 平均分给 N 个 stripe，每个 stripe 是一个和 LockFreeTokenBucketRateLimiter
+ * 一样的“单 long 桶”（桶恰好为空的时刻），线程按 id 落到自己的 stripe 上 CAS，互不干扰。
+ * 自己的 stripe 拿不到时依次去别的 stripe 借（rebalance），所以只要总量够就不会误拒。
+ *
+ * capacity 分给各 stripe（除不尽的零头给前几个 stripe 各多 1 个），加起来正好是 capacity，
+ * 所以不会多放行；误差只来自 refill 的纳秒取整。
+ *
+ * stripe 之间用 AtomicLongArray 隔开 128 字节，相当于手工 @Contended（那个注解需要 JVM 参数才生效）。
+ */
+public class StripedTokenBucketRateLimiter {
+
+    // 16 个 long = 128 字节，覆盖相邻 cache line 预取
+    private static final int PAD = 16;
+
+    private final int stripes;
+    private final int mask;
+    private final long capacity;
+    private final long[] stripeCapacity;
+    private final long[] stripeFullNanos;
+    private final double stripeNanosPerToken;
+
+    private final AtomicLongArray emptyAtNanos;
+
+    public StripedTokenBucketRateLimiter(long capacity, long refillRatePerSecond) {
+        this(capacity, refillRatePerSecond, Runtime.getRuntime().availableProcessors());
+    }
+
+    public StripedTokenBucketRateLimiter(long capacity, long refillRatePerSecond, int stripes) {
+        if (capacity <= 0 || refillRatePerSecond <= 0 || stripes <= 0) {
+            throw new IllegalArgumentException("capacity, refillRatePerSecond and stripes must be > 0");
+        }
+        int n = 1;
+        while (n < stripes && (long) n * 2 <= capacity) n <<= 1;
+        this.stripes = n;
+        this.mask = n - 1;
+        this.capacity = capacity;
+        this.stripeNanosPerToken = 1_000_000_000.0 * n / refillRatePerSecond;
+        this.stripeCapacity = new long[n];
+        this.stripeFullNanos = new long[n];
+
+        this.emptyAtNanos = new AtomicLongArray(n * PAD);
+        long now = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            stripeCapacity[i] = capacity / n + (i < capacity % n ? 1 : 0);
+            stripeFullNanos[i] = (long) (stripeCapacity[i] * stripeNanosPerToken);
+            // 初始化为满桶
+            emptyAtNanos.set(slot(i), now - stripeFullNanos[i]);
+        }
+    }
+
+    public boolean allowRequest() {
+        return allowRequest(1);
+    }
+
+    public boolean allowRequest(long requestedTokens) {
+        if (requestedTokens <= 0) {
+            throw new IllegalArgumentException("requestedTokens must be > 0");
+        }
+        if (requestedTokens > capacity) {
+            return false;
+        }
+        long now = System.nanoTime();
+        int home = (int) mix(Thread.currentThread().getId()) & mask;
+
+        // 快路径：自己的 stripe 够用
+        long got = takeUpTo(home, requestedTokens, now);
+        if (got == requestedTokens) {
+            return true;
+        }
+        // 不够就去别的 stripe 借；记账数组懒分配，单 token 请求永远用不到
+        long fromHome = got;
+        long[] taken = null;
+        for (int i = 1; i < stripes; i++) {
+            int s = (home + i) & mask;
+            long t = takeUpTo(s, requestedTokens - got, now);
+            if (t == 0) continue;
+            got += t;
+            if (got == requestedTokens) {
+                return true;
+            }
+            if (taken == null) taken = new long[stripes];
+            taken[s] = t;
+        }
+        // 凑不够：借到的原样还回去（多还的部分在下次读的时候会被 capacity 截掉）
+        refund(home, fromHome);
+        for (int s = 0; taken != null && s < stripes; s++) {
+            refund(s, taken[s]);
+        }
+        return false;
+    }
+
+    /**
+     * 用于调试/观测：各 stripe 当前 token 之和，不加锁
+     */
+    public long getAvailableTokens() {
+        long now = System.nanoTime();
+        long total = 0;
+        for (int i = 0; i < stripes; i++) {
+            total += available(i, emptyAtNanos.get(slot(i)), now);
+        }
+        return total;
+    }
+
+    private static int slot(int stripe) {
+        return stripe * PAD + PAD / 2;
+    }
+
+    private static long mix(long x) {
+        x ^= (x >>> 33);
+        x *= 0xff51afd7ed558ccdL;
+        x ^= (x >>> 33);
+        return x;
+    }
+
+    private long available(int stripe, long emptyAt, long now) {
+        long elapsed = now - emptyAt;
+        return elapsed <= 0 ? 0 : Math.min(stripeCapacity[stripe], (long) (elapsed / stripeNanosPerToken));
+    }
+
+    private void refund(int stripe, long tokens) {
+        if (tokens > 0) {
+            emptyAtNanos.addAndGet(slot(stripe), -(long) (tokens * stripeNanosPerToken));
+        }
+    }
+
+    /**
+     * 从一个 stripe 里最多拿 max 个 token，返回实际拿到的数量
+     */
+    private long takeUpTo(int stripe, long max, long now) {
+        int idx = slot(stripe);
+        while (true) {
+            long cur = emptyAtNanos.get(idx);
+            long base = Math.max(cur, now - stripeFullNanos[stripe]);
+            long take = Math.min(available(stripe, base, now), max);
+            if (take <= 0) {
+                return 0;
+            }
+            long next = base + (long) (take * stripeNanosPerToken);
+            if (emptyAtNanos.compareAndSet(idx, cur, next)) {
+                return take;
+            }
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        StripedTokenBucketRateLimiter limiter = new StripedTokenBucketRateLimiter(10, 5, 4);
+        for (int i = 0; i < 15; i++) {
+            boolean allowed = limiter.allowRequest();
+            System.out.println("request " + i + " allowed = " + allowed
+                    + ", availableTokens = " + limiter.getAvailableTokens());
+        }
+
+        // 同一个 key 上的扩展性：单锁 / 单 CAS / 分片，1 ~ 32 线程（非 JMH，粗略 ops/s）
+        long durationMs = 1000;
+        for (int threads = 1; threads <= 32; threads <<= 1) {
+            TokenBucketRateLimiter locked = new TokenBucketRateLimiter(Long.MAX_VALUE / 4, 1_000_000_000L);
+            LockFreeTokenBucketRateLimiter cas = new LockFreeTokenBucketRateLimiter(1L << 40, 1_000_000_000L);
+            StripedTokenBucketRateLimiter striped = new StripedTokenBucketRateLimiter(1L << 40, 1_000_000_000L, 32);
+            LockFreeTokenBucketRateLimiter.measure(striped::allowRequest, threads, 200);
+            long a = LockFreeTokenBucketRateLimiter.measure(locked::allowRequest, threads, durationMs);
+            long b = LockFreeTokenBucketRateLimiter.measure(cas::allowRequest, threads, durationMs);
+            long c = LockFreeTokenBucketRateLimiter.measure(striped::allowRequest, threads, durationMs);
+            System.out.printf("threads=%-3d lock: %,12d  cas: %,12d  striped: %,12d ops/s%n", threads, a, b, c);
+        }
+    }
+}
@@ -1,3 +1,6 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.LockSupport;
 import java.util.concurrent.locks.ReentrantLock;
 
 public class TokenBucketRateLimiter {
@@ -5,11 +8,39 @@ public class TokenBucketRateLimiter {
     private final long capacity;
     private final long refillRatePerSecond;
 
-    private long tokens;
-    private long lastRefillTimeMs;
+    // 只在持有 lock 时写；volatile 是为了 getAvailableTokens() 不加锁也能读到
+    private volatile long tokens;
+    private volatile long lastRefillTimeMs;
 
     private final ReentrantLock lock = new ReentrantLock();
 
+    // 所有桶共用一个 timer 线程；每个桶最多只在上面挂一个任务（队头 waiter 的到期时间）
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "token-bucket-timer");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final class Waiter {
+        final long deadlineNanos;
+        final long reserved;
+        final CompletableFuture<Void> future;
+        // 都只在持有 lock 时读写：released = 已经被 drainWaiters 取走，cancelled = 调用方放弃了、token 已退还
+        boolean released;
+        boolean cancelled;
+        Waiter(long deadlineNanos, long reserved, CompletableFuture<Void> future) {
+            this.deadlineNanos = deadlineNanos;
+            this.reserved = reserved;
+            this.future = future;
+        }
+    }
+
+    // 异步等待者，按预约顺序排队，所以 deadline 单调递增：队列就是按到期时间排好序的。
+    // 取消的 waiter 只打标记，到队头时再丢掉（ArrayDeque 中间删除是 O(n)）
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private boolean drainScheduled;
+    private ScheduledFuture<?> drainTask;
+
     public TokenBucketRateLimiter(long capacity, long refillRatePerSecond) {
         if (capacity <= 0 || refillRatePerSecond <= 0) {
             throw new IllegalArgumentException("capacity and refillRatePerSecond must be > 0");
@@ -50,6 +81,204 @@ public class TokenBucketRateLimiter {
         }
     }
 
+    /**
+     * 批量获取：一次加锁，最多拿 maxTokens 个，返回实际拿到的数量（可能为 0）
+     */
+    public long tryAcquireUpTo(long maxTokens) {
+        if (maxTokens <= 0) {
+            throw new IllegalArgumentException("maxTokens must be > 0");
+        }
+
+        lock.lock();
+        try {
+            refill();
+            long granted = Math.max(0, Math.min(tokens, maxTokens));
+            tokens -= granted;
+            return granted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 阻塞获取 n 个 token：先预约（tokens 可以被扣成负数，相当于欠账），再 park 到欠账还清的时刻。
+     * 后来的请求排在之前的欠账后面，所以是 FIFO，大请求不会被小请求饿死；
+     * 有人在排队时 allowRequest() 也会直接失败，不能插队。
+     */
+    public void acquire(long n) throws InterruptedException {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be > 0");
+        }
+        long waitMs;
+        lock.lock();
+        try {
+            waitMs = reserve(n);
+        } finally {
+            lock.unlock();
+        }
+        parkUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMs), n);
+    }
+
+    /**
+     * 最多等 timeout；如果预计等待时间超过 timeout 就直接返回 false，不预约
+     */
+    public boolean tryAcquire(long n, long timeout, TimeUnit unit) throws InterruptedException {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be > 0");
+        }
+        long waitMs;
+        lock.lock();
+        try {
+            refill();
+            waitMs = waitMillis(n);
+            if (TimeUnit.MILLISECONDS.toNanos(waitMs) > unit.toNanos(timeout)) {
+                return false;
+            }
+            tokens -= n;
+        } finally {
+            lock.unlock();
+        }
+        parkUntil(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMs), n);
+        return true;
+    }
+
+    /**
+     * 异步获取：不占用线程，到期后由共享的 timer 线程 complete。
+     * future 在 timer 线程上完成，后续的重活请用 thenXxxAsync 放到自己的线程池。
+     * 到期前 cancel 或者异常完成（比如 orTimeout 超时）会把预约的 token 退还，和 acquire 被中断一样。
+     */
+    public CompletableFuture<Void> acquireAsync(long n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be > 0");
+        }
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        Waiter waiter = null;
+        lock.lock();
+        try {
+            long waitMs = reserve(n);
+            if (waitMs > 0 || drainScheduled) {
+                long waitNanos = TimeUnit.MILLISECONDS.toNanos(waitMs);
+                waiter = new Waiter(System.nanoTime() + waitNanos, n, future);
+                waiters.addLast(waiter);
+                if (!drainScheduled) {
+                    drainScheduled = true;
+                    drainTask = TIMER.schedule(this::drainWaiters, waitNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (waiter == null) {
+            future.complete(null);
+            return future;
+        }
+        Waiter w = waiter;
+        future.whenComplete((v, t) -> {
+            if (t != null) {
+                abandon(w);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * future 在到期前被取消/异常完成：把预约的 token 还回去，排在后面的人只会早一点拿到，不会出错
+     */
+    private void abandon(Waiter w) {
+        lock.lock();
+        try {
+            if (w.released || w.cancelled) {
+                return;
+            }
+            w.cancelled = true;
+            tokens = Math.min(capacity, tokens + w.reserved);
+            while (!waiters.isEmpty() && waiters.peekFirst().cancelled) {
+                waiters.pollFirst();
+            }
+            // 全取消了：撤掉还没开始的 timer 任务，否则之后的 acquireAsync 要排队等到它原来的到期时间。
+            // cancel 失败说明 drainWaiters 正在跑，它自己会收尾
+            if (waiters.isEmpty() && drainScheduled && drainTask.cancel(false)) {
+                drainScheduled = false;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void drainWaiters() {
+        List<CompletableFuture<Void>> ready = new ArrayList<>();
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            while (!waiters.isEmpty() && (waiters.peekFirst().cancelled || waiters.peekFirst().deadlineNanos - now <= 0)) {
+                Waiter w = waiters.pollFirst();
+                if (!w.cancelled) {
+                    w.released = true;
+                    ready.add(w.future);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        // 在锁外 complete，避免回调里再进来拿锁；
+        // 这期间 drainScheduled 仍为 true，新的 acquireAsync 会排队而不是直接完成，保证 FIFO
+        for (CompletableFuture<Void> f : ready) {
+            f.complete(null);
+        }
+        lock.lock();
+        try {
+            if (waiters.isEmpty()) {
+                drainScheduled = false;
+            } else {
+                long delay = waiters.peekFirst().deadlineNanos - System.nanoTime();
+                drainTask = TIMER.schedule(this::drainWaiters, Math.max(0, delay), TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ==== 以下方法都只在持有 lock 情况下调用 ====
+
+    /**
+     * 预约 n 个 token，返回需要等待的毫秒数
+     */
+    private long reserve(long n) {
+        refill();
+        long waitMs = waitMillis(n);
+        tokens -= n;
+        return waitMs;
+    }
+
+    /**
+     * 桶里（扣掉欠账后）攒够 n 个 token 还要多少毫秒；refill 按 lastRefillTimeMs 计算，已经过去的零头也算进去
+     */
+    private long waitMillis(long n) {
+        if (tokens >= n) {
+            return 0;
+        }
+        long deficit = n - tokens;
+        long readyAtMs = lastRefillTimeMs + (deficit * 1000 + refillRatePerSecond - 1) / refillRatePerSecond;
+        return Math.max(0, readyAtMs - System.currentTimeMillis());
+    }
+
+    private void parkUntil(long deadlineNanos, long reserved) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadlineNanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                // 被中断：把预约的 token 还回去（排在后面的人只会多等一会，不会出错）
+                lock.lock();
+                try {
+                    tokens = Math.min(capacity, tokens + reserved);
+                } finally {
+                    lock.unlock();
+                }
+                throw new InterruptedException();
+            }
+        }
+    }
+
     /**
      * 根据时间流逝补充 token，但不会超过 capacity
      */
@@ -70,16 +299,16 @@ public class TokenBucketRateLimiter {
     }
 
     /**
-     * 用于调试/观测
+     * 用于调试/观测：不加锁，也不修改状态，只根据最近一次写入的值估算；
+     * 两个字段不是原子地一起读的，并发时是近似值
      */
     public long getAvailableTokens() {
-        lock.lock();
-        try {
-            refill();
-            return tokens;
-        } finally {
-            lock.unlock();
+        long t = tokens;
+        long elapsed = System.currentTimeMillis() - lastRefillTimeMs;
+        if (elapsed > 0) {
+            t = Math.min(capacity, t + elapsed * refillRatePerSecond / 1000);
         }
+        return Math.max(0, t);
     }
 
     public static void main(String[] args) throws InterruptedException {
@@ -95,11 +324,38 @@ public class TokenBucketRateLimiter {
 
         System.out.println("sleep 2 seconds...");
         Thread.sleep(2000);
+        System.out.println("tryAcquireUpTo(3) = " + limiter.tryAcquireUpTo(3));
 
         for (int i = 15; i < 20; i++) {
             boolean allowed = limiter.allowRequest();
             System.out.println("request " + i + " allowed = " + allowed
                     + ", availableTokens = " + limiter.getAvailableTokens());
         }
+
+        // 阻塞获取：桶里只剩 2 个左右，acquire(5) 要 park 到差额补满（约 600ms）
+        long t0 = System.nanoTime();
+        limiter.acquire(5);
+        System.out.println("acquire(5) waited " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0) + " ms");
+        System.out.println("tryAcquire(10, 100ms) = " + limiter.tryAcquire(10, 100, TimeUnit.MILLISECONDS));
+
+        // 10 万个异步等待者，只用一个共享 timer 线程；检查完成顺序是 FIFO
+        TokenBucketRateLimiter fast = new TokenBucketRateLimiter(1_000, 200_000);
+        int waiterCount = 100_000;
+        int[] completionOrder = new int[waiterCount];
+        java.util.concurrent.atomic.AtomicInteger seq = new java.util.concurrent.atomic.AtomicInteger();
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[waiterCount];
+        t0 = System.nanoTime();
+        for (int i = 0; i < waiterCount; i++) {
+            final int id = i;
+            futures[i] = fast.acquireAsync(i % 100 == 0 ? 50 : 1)
+                    .thenRun(() -> completionOrder[seq.getAndIncrement()] = id);
+        }
+        CompletableFuture.allOf(futures).join();
+        boolean fifo = true;
+        for (int i = 1; i < waiterCount; i++) {
+            if (completionOrder[i] < completionOrder[i - 1]) fifo = false;
+        }
+        System.out.println(waiterCount + " async waiters done in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0) + " ms, fifo = " + fifo);
     }
 }
\ No newline at end of file